@@ -2,11 +2,13 @@ package com.crsp.mall;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 成人玩具商城应用主入口
  */
 @SpringBootApplication
+@EnableScheduling
 public class MallApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,58 @@
+package com.crsp.mall.config;
+
+import com.crsp.mall.entity.UserPrincipal;
+import com.crsp.mall.service.UserService;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * 当前用户解析 - 每个用户接口请求只根据cookie中的token解析一次用户身份，
+ * 结果放入请求属性 {@link UserPrincipal#REQUEST_ATTRIBUTE}，控制器直接读取。
+ * 令牌需要换发（旧UUID令牌升级、签名令牌刷新）时同时写回cookie。
+ */
+@Component
+public class CurrentUserInterceptor implements HandlerInterceptor {
+
+    public static final String TOKEN_COOKIE = "user_token";
+
+    // 令牌cookie有效期：1年
+    private static final int TOKEN_COOKIE_MAX_AGE = 365 * 24 * 60 * 60;
+
+    @Autowired
+    private UserService userService;
+
+    @Value("${server.cookie.secure:false}")
+    private boolean secureCookie;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(UserPrincipal.REQUEST_ATTRIBUTE) == null) {
+            Cookie cookie = WebUtils.getCookie(request, TOKEN_COOKIE);
+            if (cookie != null) {
+                userService.resolveToken(cookie.getValue()).ifPresent(resolved -> {
+                    request.setAttribute(UserPrincipal.REQUEST_ATTRIBUTE, resolved.principal());
+                    if (resolved.reissuedToken() != null) {
+                        response.addCookie(tokenCookie(resolved.reissuedToken(), secureCookie));
+                    }
+                });
+            }
+        }
+        return true;
+    }
+
+    public static Cookie tokenCookie(String token, boolean secure) {
+        Cookie cookie = new Cookie(TOKEN_COOKIE, token);
+        cookie.setMaxAge(TOKEN_COOKIE_MAX_AGE);
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setSecure(secure);
+        cookie.setAttribute("SameSite", "Lax");
+        return cookie;
+    }
+}
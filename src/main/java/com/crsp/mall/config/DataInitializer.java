@@ -35,6 +35,18 @@ public class DataInitializer implements CommandLineRunner {
         // 初始化默认商品
         productDbService.initDefaultProducts();
         
+        // 回填旧商品的媒体派生列（首图、首个视频、媒体数量）
+        productDbService.backfillMediaSummary();
+        
+        // 将旧版销量文本迁移为已售数量
+        productDbService.backfillSoldCounts();
+        
+        // 为旧商品按规格JSON生成规格库存行
+        productDbService.backfillSkus();
+        
+        // 预热商品目录快照
+        productDbService.getCatalog();
+        
         // 初始化示例订单
         orderService.initSampleOrders();
         
@@ -0,0 +1,19 @@
+package com.crsp.mall.config;
+
+import com.crsp.mall.support.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * ID生成配置 - 设置本实例的雪花ID节点号
+ */
+@Configuration
+public class IdGeneratorConfig {
+
+    @Bean
+    public SnowflakeIdGenerator snowflakeIdGenerator(@Value("${app.id.node-id:0}") int nodeId) {
+        SnowflakeIdGenerator.setDefaultNodeId(nodeId);
+        return SnowflakeIdGenerator.getDefault();
+    }
+}
@@ -0,0 +1,210 @@
+package com.crsp.mall.config;
+
+import com.crsp.mall.service.CatalogChangedEvent;
+import com.crsp.mall.service.ProductStockChangedEvent;
+import com.crsp.mall.support.BoundedCache;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * 页面输出缓存 - 缓存匿名访问的首页、搜索页和商品详情页渲染结果
+ * 这些页面不含用户数据（用户相关数据由前端通过 /api/user/* 获取），
+ * 按路径+页面读取的参数（搜索关键词）缓存HTML，商品目录变更时失效。
+ * 同一页面未命中时只有一个请求执行渲染，其余请求等待其结果。
+ */
+@Component
+public class PageCacheFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(PageCacheFilter.class);
+
+    public static final String CACHE_STATUS_HEADER = "X-Page-Cache";
+
+    private static final String SEARCH_PATH = "/search";
+
+    private static final String KEYWORD_PARAM = "keyword";
+
+    private static final Pattern PRODUCT_PATH = Pattern.compile("^/product/\\d+$");
+
+    // 等待其他请求渲染的最长时间，超时后自行渲染
+    private static final long RENDER_WAIT_SECONDS = 5;
+
+    private final boolean enabled;
+
+    private final BoundedCache<PageKey, CachedPage> cache;
+
+    private final ConcurrentHashMap<PageKey, CompletableFuture<CachedPage>> rendering = new ConcurrentHashMap<>();
+
+    // 失效代数：渲染期间发生失效时，渲染结果不再写入缓存
+    private long generation;
+
+    private final Object invalidationLock = new Object();
+
+    record PageKey(String path, String query) {}
+
+    record CachedPage(String contentType, byte[] body) {}
+
+    public PageCacheFilter(@Value("${app.page-cache.enabled:true}") boolean enabled,
+                           @Value("${app.page-cache.max-entries:500}") int maxEntries,
+                           @Value("${app.page-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.cache = new BoundedCache<>(maxEntries, Duration.ofSeconds(ttlSeconds));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || !"GET".equals(request.getMethod())) {
+            return true;
+        }
+        String path = pathOf(request);
+        return !("/".equals(path) || SEARCH_PATH.equals(path) || PRODUCT_PATH.matcher(path).matches());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        PageKey key = keyOf(request);
+        CachedPage cached = cache.get(key);
+        if (cached != null) {
+            write(cached, response);
+            return;
+        }
+
+        CompletableFuture<CachedPage> own = new CompletableFuture<>();
+        CompletableFuture<CachedPage> inflight = rendering.putIfAbsent(key, own);
+        if (inflight != null) {
+            CachedPage page = await(inflight);
+            if (page != null) {
+                write(page, response);
+            } else {
+                // 渲染方失败或结果不可缓存（如重定向），自行渲染
+                chain.doFilter(request, response);
+            }
+            return;
+        }
+
+        CachedPage page = null;
+        try {
+            long startGeneration = currentGeneration();
+            ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+            wrapper.setHeader(CACHE_STATUS_HEADER, "MISS");
+            chain.doFilter(request, wrapper);
+            page = capture(wrapper);
+            if (page != null) {
+                synchronized (invalidationLock) {
+                    if (generation == startGeneration) {
+                        cache.put(key, page);
+                    }
+                }
+            }
+            wrapper.copyBodyToResponse();
+        } finally {
+            rendering.remove(key, own);
+            own.complete(page);
+        }
+    }
+
+    /**
+     * 商品目录变更时失效缓存：列表内容变化时清空全部页面，
+     * 单个商品的其他变更只清除该商品详情页和搜索页（描述、规格等可搜索文本可能变化）
+     */
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        synchronized (invalidationLock) {
+            generation++;
+            if (event.listingChanged()) {
+                cache.invalidateAll();
+            } else if (event.productId() != null) {
+                String productPath = "/product/" + event.productId();
+                cache.invalidateIf(key -> key.path().equals(productPath) || key.path().equals(SEARCH_PATH));
+            }
+        }
+        log.debug("商品目录变更(version={}, productId={})，页面缓存已失效", event.version(), event.productId());
+    }
+
+    /**
+     * 规格售罄或恢复可售时只清除该商品详情页（列表和搜索页不展示库存）
+     */
+    @EventListener
+    public void onProductStockChanged(ProductStockChangedEvent event) {
+        String productPath = "/product/" + event.productId();
+        synchronized (invalidationLock) {
+            generation++;
+            cache.invalidateIf(key -> key.path().equals(productPath));
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private long currentGeneration() {
+        synchronized (invalidationLock) {
+            return generation;
+        }
+    }
+
+    private static CachedPage await(CompletableFuture<CachedPage> inflight) throws IOException {
+        try {
+            return inflight.get(RENDER_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待页面渲染被中断", e);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 只缓存200的HTML响应，且响应不能设置Cookie
+     */
+    private static CachedPage capture(ContentCachingResponseWrapper wrapper) {
+        String contentType = wrapper.getContentType();
+        if (wrapper.getStatus() != HttpServletResponse.SC_OK || contentType == null
+                || !contentType.startsWith("text/html") || wrapper.containsHeader(HttpHeaders.SET_COOKIE)) {
+            return null;
+        }
+        return new CachedPage(contentType, wrapper.getContentAsByteArray());
+    }
+
+    private static void write(CachedPage page, HttpServletResponse response) throws IOException {
+        response.setHeader(CACHE_STATUS_HEADER, "HIT");
+        response.setContentType(page.contentType());
+        response.setContentLength(page.body().length);
+        response.getOutputStream().write(page.body());
+    }
+
+    private static PageKey keyOf(HttpServletRequest request) {
+        // 只取页面实际读取的参数（搜索页的关键词），其他参数（如跟踪参数）不影响渲染结果，不拆分缓存
+        String path = pathOf(request);
+        if (!SEARCH_PATH.equals(path)) {
+            return new PageKey(path, "");
+        }
+        String keyword = request.getParameter(KEYWORD_PARAM);
+        return new PageKey(path, keyword == null || keyword.isBlank() ? "" : keyword.trim());
+    }
+
+    private static String pathOf(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        return contextPath != null && !contextPath.isEmpty() ? uri.substring(contextPath.length()) : uri;
+    }
+}
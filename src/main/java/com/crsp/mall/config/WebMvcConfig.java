@@ -1,14 +1,16 @@
 package com.crsp.mall.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.io.File;
 
 /**
- * Web MVC配置 - 配置上传文件的静态资源访问
+ * Web MVC配置 - 配置上传文件的静态资源访问和用户接口的当前用户解析
  */
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
@@ -16,6 +18,14 @@ public class WebMvcConfig implements WebMvcConfigurer {
     @Value("${app.upload.dir:/data/uploads}")
     private String uploadDir;
 
+    @Autowired
+    private CurrentUserInterceptor currentUserInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(currentUserInterceptor).addPathPatterns("/api/user/**");
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         // 将/uploads/**路径映射到上传目录
@@ -7,6 +7,7 @@ import com.crsp.mall.entity.UserEntity;
 import com.crsp.mall.service.AdminService;
 import com.crsp.mall.service.OrderService;
 import com.crsp.mall.service.ProductDbService;
+import com.crsp.mall.service.ProductSkus;
 import com.crsp.mall.service.UserService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,7 +16,9 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -135,6 +138,7 @@ public class AdminController {
         }
         
         model.addAttribute("product", new ProductEntity());
+        model.addAttribute("skuStocks", Map.of());
         model.addAttribute("currentPage", "products");
         
         return "admin/product-form";
@@ -155,11 +159,29 @@ public class AdminController {
         }
         
         model.addAttribute("product", product.get());
+        model.addAttribute("skuStocks", skuStocks(id));
         model.addAttribute("currentPage", "products");
         
         return "admin/product-form";
     }
 
+    /**
+     * 规格当前库存（规格名称 -> 库存，不限量的规格不包含）
+     */
+    private Map<String, Integer> skuStocks(Long productId) {
+        ProductSkus skus = productDbService.getProductSkus(productId);
+        Map<Long, Integer> stocks = productDbService.getSkuStocks(
+                skus.getSkus().stream().map(ProductSkus.Sku::id).toList());
+        Map<String, Integer> byName = new HashMap<>();
+        for (ProductSkus.Sku sku : skus.getSkus()) {
+            Integer stock = stocks.get(sku.id());
+            if (stock != null) {
+                byName.put(sku.name(), stock);
+            }
+        }
+        return byName;
+    }
+
     /**
      * 保存商品
      */
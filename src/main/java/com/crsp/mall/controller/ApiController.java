@@ -1,14 +1,20 @@
 package com.crsp.mall.controller;
 
 import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.service.CatalogSnapshot;
 import com.crsp.mall.service.ProductDbService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import java.util.List;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * REST API控制器
@@ -20,30 +26,98 @@ public class ApiController {
     @Autowired
     private ProductDbService productDbService;
 
+    // 各接口的Cache-Control策略，为空时不输出该响应头
+    @Value("${app.http.cache-control.products:no-cache}")
+    private String productsCacheControl;
+
+    @Value("${app.http.cache-control.product:no-cache}")
+    private String productCacheControl;
+
+    @Value("${app.http.cache-control.search:no-cache}")
+    private String searchCacheControl;
+
     /**
-     * 获取所有商品
+     * 分页获取上架商品（游标分页），sort=sales时按销量降序
+     * 支持条件请求：ETag为目录快照版本，未变化时返回304
      */
     @GetMapping("/products")
-    public List<ProductEntity> getAllProducts() {
-        return productDbService.getActiveProducts();
+    public ResponseEntity<?> getAllProducts(@RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer size,
+                                            @RequestParam(required = false) String sort,
+                                            ServletWebRequest request) {
+        // 同一快照先校验ETag再分页，命中304时不构建分页，ETag与返回内容一致
+        CatalogSnapshot catalog = productDbService.getCatalog();
+        if (isNotModified(request, productsCacheControl, catalog.getETag(), catalog.getCreatedAt())) {
+            return null;
+        }
+        try {
+            return ResponseEntity.ok(productDbService.getActiveProductPage(catalog, cursor, size, sort));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
     }
 
     /**
      * 获取单个商品详情
+     * 上架商品的ETag取自目录快照和库存变更的更新时间，命中时无需查询数据库
      */
     @GetMapping("/products/{id}")
-    public ResponseEntity<?> getProduct(@PathVariable Long id) {
-        return productDbService.getProductById(id)
-                .<ResponseEntity<?>>map(ResponseEntity::ok)
-                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
-                        .body(Map.of("error", "商品不存在")));
+    public ResponseEntity<?> getProduct(@PathVariable Long id, ServletWebRequest request) {
+        Optional<LocalDateTime> lastModified = productDbService.getProductLastModified(id);
+        if (lastModified.isPresent()) {
+            LocalDateTime updatedAt = lastModified.get();
+            if (isNotModified(request, productCacheControl, productETag(id, updatedAt), toEpochMilli(updatedAt))) {
+                return null;
+            }
+        }
+        Optional<ProductEntity> product = productDbService.getProductById(id);
+        if (product.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "商品不存在"));
+        }
+        LocalDateTime updatedAt = product.get().getUpdatedAt();
+        if (lastModified.isEmpty() && updatedAt != null
+                && isNotModified(request, productCacheControl, productETag(id, updatedAt), toEpochMilli(updatedAt))) {
+            return null;
+        }
+        return ResponseEntity.ok(product.get());
     }
 
     /**
-     * 搜索商品
+     * 搜索商品（按相关度排序，游标分页）
      */
     @GetMapping("/products/search")
-    public List<ProductEntity> searchProducts(@RequestParam(required = false) String keyword) {
-        return productDbService.searchProducts(keyword);
+    public ResponseEntity<?> searchProducts(@RequestParam(required = false) String keyword,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer size,
+                                            ServletWebRequest request) {
+        // 同一快照先校验ETag再分页，命中304时不构建分页，ETag与返回内容一致
+        CatalogSnapshot catalog = productDbService.getCatalog();
+        if (isNotModified(request, searchCacheControl, catalog.getETag(), catalog.getCreatedAt())) {
+            return null;
+        }
+        try {
+            return ResponseEntity.ok(productDbService.searchProductPage(catalog, keyword, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 写入Cache-Control、ETag和Last-Modified响应头，并处理If-None-Match/If-Modified-Since
+     * @return true表示客户端缓存仍有效，已设置304状态，调用方直接返回null
+     */
+    private boolean isNotModified(ServletWebRequest request, String cacheControl, String etag, long lastModified) {
+        if (cacheControl != null && !cacheControl.isBlank() && request.getResponse() != null) {
+            request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        return request.checkNotModified(etag, lastModified);
+    }
+
+    private static String productETag(Long id, LocalDateTime updatedAt) {
+        return "\"p" + id + "-" + Long.toString(toEpochMilli(updatedAt), 36) + "\"";
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
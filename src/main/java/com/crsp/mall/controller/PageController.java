@@ -1,7 +1,11 @@
 package com.crsp.mall.controller;
 
+import com.crsp.mall.entity.ProductCard;
 import com.crsp.mall.entity.ProductEntity;
 import com.crsp.mall.service.ProductDbService;
+import com.crsp.mall.service.ProductMedia;
+import com.crsp.mall.service.ProductPage;
+import com.crsp.mall.service.RelatedProductService;
 import com.crsp.mall.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -9,12 +13,8 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -23,25 +23,29 @@ import java.util.Optional;
 @Controller
 public class PageController {
 
-    private static final int MAX_RECOMMENDATIONS = 6;
-    private static final int MAX_CART_RECOMMENDATIONS = 4;
     private static final int MAX_RELATED_PRODUCTS = 4;
 
+    private static final int HOT_PRODUCT_COUNT = 5;
+
     @Autowired
     private ProductDbService productDbService;
 
     @Autowired
     private UserService userService;
-    
-    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private RelatedProductService relatedProductService;
 
     /**
      * 首页
      */
     @GetMapping("/")
     public String home(Model model) {
-        List<ProductEntity> products = productDbService.getActiveProducts();
-        model.addAttribute("products", products);
+        // 首屏只渲染第一页，后续由页面滚动加载
+        ProductPage<ProductCard> page = productDbService.getActiveProductPage(null, null);
+        model.addAttribute("products", page.items());
+        model.addAttribute("nextCursor", page.nextCursor());
+        model.addAttribute("hotProducts", productDbService.getHotProducts(HOT_PRODUCT_COUNT));
         return "index";
     }
 
@@ -50,9 +54,11 @@ public class PageController {
      */
     @GetMapping("/search")
     public String search(@RequestParam(required = false) String keyword, Model model) {
-        List<ProductEntity> results = productDbService.searchProducts(keyword);
+        ProductPage<ProductCard> page = productDbService.searchProductPage(keyword, null, null);
         model.addAttribute("keyword", keyword);
-        model.addAttribute("products", results);
+        model.addAttribute("products", page.items());
+        model.addAttribute("totalCount", page.total());
+        model.addAttribute("nextCursor", page.nextCursor());
         return "search";
     }
 
@@ -68,38 +74,20 @@ public class PageController {
         ProductEntity product = productOpt.get();
         model.addAttribute("product", product);
         
-        // 解析展示媒体JSON
-        List<Map<String, String>> displayMediaList = parseMediaJson(product.getDisplayMedia());
-        model.addAttribute("displayMediaList", displayMediaList);
-        
-        // 解析详情媒体JSON
-        List<Map<String, String>> detailMediaList = parseMediaJson(product.getDetailMedia());
-        model.addAttribute("detailMediaList", detailMediaList);
+        // 展示和详情媒体（已解析，按商品更新时间缓存）
+        ProductMedia media = productDbService.getProductMedia(product);
+        model.addAttribute("displayMediaList", media.displayMedia());
+        model.addAttribute("detailMediaList", media.detailMedia());
+
+        // 规格选项和可售状态（规格库存缓存，不解析规格JSON）
+        model.addAttribute("skuOptions", productDbService.getProductSkus(id).getOptions());
         
         // 获取相关推荐商品
-        List<ProductEntity> relatedProducts = productDbService.getActiveProducts().stream()
-                .filter(p -> !p.getId().equals(id))
-                .limit(MAX_RELATED_PRODUCTS)
-                .toList();
+        List<ProductCard> relatedProducts = relatedProductService.getRelatedProducts(id, MAX_RELATED_PRODUCTS);
         model.addAttribute("relatedProducts", relatedProducts);
         return "product-detail";
     }
     
-    /**
-     * 解析媒体JSON字符串为List
-     */
-    private List<Map<String, String>> parseMediaJson(String json) {
-        if (json == null || json.trim().isEmpty()) {
-            return new ArrayList<>();
-        }
-        try {
-            return objectMapper.readValue(json, new TypeReference<List<Map<String, String>>>() {});
-        } catch (Exception e) {
-            // JSON解析失败，返回空列表
-            return new ArrayList<>();
-        }
-    }
-
     /**
      * 消息页面
      */
@@ -113,11 +101,7 @@ public class PageController {
      */
     @GetMapping("/cart")
     public String cart(Model model) {
-        // 添加推荐商品
-        List<ProductEntity> recommendProducts = productDbService.getActiveProducts().stream()
-                .limit(MAX_CART_RECOMMENDATIONS)
-                .toList();
-        model.addAttribute("recommendProducts", recommendProducts);
+        // 推荐商品由页面通过 /api/user/recommendations 异步加载
         return "cart";
     }
 
@@ -126,11 +110,7 @@ public class PageController {
      */
     @GetMapping("/profile")
     public String profile(Model model) {
-        // 添加推荐商品（猜你喜欢）
-        List<ProductEntity> recommendProducts = productDbService.getActiveProducts().stream()
-                .limit(MAX_RECOMMENDATIONS)
-                .toList();
-        model.addAttribute("recommendProducts", recommendProducts);
+        // 猜你喜欢由页面通过 /api/user/recommendations 异步加载
         return "profile";
     }
 
@@ -1,17 +1,24 @@
 package com.crsp.mall.controller;
 
 import com.crsp.mall.entity.*;
+import com.crsp.mall.config.CurrentUserInterceptor;
+import com.crsp.mall.service.CheckoutBusyException;
+import com.crsp.mall.service.CheckoutService;
 import com.crsp.mall.service.OrderService;
 import com.crsp.mall.service.ProductDbService;
+import com.crsp.mall.service.ProductSkus;
+import com.crsp.mall.service.RecommendationService;
 import com.crsp.mall.service.UserService;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.WebUtils;
 
 import java.util.HashMap;
 import java.util.List;
@@ -25,6 +32,10 @@ import java.util.Optional;
 @RequestMapping("/api/user")
 public class UserApiController {
 
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+
     @Autowired
     private UserService userService;
 
@@ -34,63 +45,100 @@ public class UserApiController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private CheckoutService checkoutService;
+
     @Value("${server.cookie.secure:false}")
     private boolean secureCookie;
 
+    @Value("${app.checkout.intake.retry-after-seconds:1}")
+    private int checkoutRetryAfterSeconds;
+
     /**
      * 获取或创建用户（自动注册游客）
      */
     @PostMapping("/init")
     public ResponseEntity<Map<String, Object>> initUser(HttpServletRequest request, HttpServletResponse response) {
         String token = getTokenFromCookie(request);
-        UserEntity user = userService.getOrCreateUser(token);
-        
-        // 设置cookie
-        setUserTokenCookie(response, user.getToken());
-        
         Map<String, Object> result = new HashMap<>();
-        result.put("id", user.getId());
-        result.put("nickname", user.getNickname());
-        result.put("userType", user.getUserType());
+        UserPrincipal principal = getCurrentUser(request);
+        Optional<UserEntity> userOpt = principal != null ? userService.visitUser(principal.id()) : Optional.empty();
+        if (userOpt.isPresent()) {
+            UserEntity user = userOpt.get();
+
+            // 延长cookie有效期（令牌已由CurrentUserInterceptor换发时不覆盖）
+            if (!response.containsHeader(HttpHeaders.SET_COOKIE)) {
+                setUserTokenCookie(response, token);
+            }
+
+            result.put("id", user.getId());
+            result.put("nickname", user.getNickname());
+            result.put("userType", user.getUserType());
+            return ResponseEntity.ok(result);
+        }
+
+        String guestId = initProvisionalGuest(token, response);
+        result.put("id", null);
+        result.put("nickname", UserService.guestNickname(guestId));
+        result.put("userType", "guest");
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * 页面启动数据：识别或初始化用户，一次返回个人资料、收藏/购物车数量、等级和各状态订单数
+     * （代替依次请求 init、info 和订单列表）
+     */
+    @GetMapping("/bootstrap")
+    public ResponseEntity<Map<String, Object>> bootstrap(HttpServletRequest request, HttpServletResponse response) {
+        String token = getTokenFromCookie(request);
+        UserPrincipal principal = getCurrentUser(request);
+        Optional<UserOverview> overview = principal != null
+                ? userService.getUserOverview(principal.id()) : Optional.empty();
+        if (overview.isPresent()) {
+            userService.recordVisit(principal.id());
+            if (!response.containsHeader(HttpHeaders.SET_COOKIE)) {
+                setUserTokenCookie(response, token);
+            }
+            return ResponseEntity.ok(userInfo(overview.get()));
+        }
+        return ResponseEntity.ok(provisionalGuestInfo(initProvisionalGuest(token, response)));
+    }
+
     /**
      * 获取用户信息
      */
     @GetMapping("/info")
     public ResponseEntity<?> getUserInfo(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
-        if (user == null) {
+        UserPrincipal principal = getCurrentUser(request);
+        if (principal == null) {
+            Optional<String> guestId = userService.verifyProvisionalToken(getTokenFromCookie(request));
+            if (guestId.isPresent()) {
+                return ResponseEntity.ok(provisionalGuestInfo(guestId.get()));
+            }
+        }
+        Optional<UserOverview> overview = principal != null
+                ? userService.getUserOverview(principal.id()) : Optional.empty();
+        if (overview.isEmpty()) {
             return ResponseEntity.ok(Map.of("error", "用户未初始化"));
         }
-        double totalSpending = userService.getUserTotalSpending(user.getId());
-        long orderCount = userService.getUserOrderCount(user.getId());
-        Map<String, Object> result = new HashMap<>();
-        result.put("id", user.getId());
-        result.put("nickname", user.getNickname());
-        result.put("userType", user.getUserType());
-        result.put("phone", user.getPhone());
-        result.put("email", user.getEmail());
-        result.put("address", user.getAddress());
-        result.put("favoriteCount", userService.getFavoriteCount(user.getId()));
-        result.put("cartCount", userService.getCartItemCount(user.getId()));
-        result.put("orderCount", orderCount);
-        result.put("totalSpending", totalSpending);
-        result.put("level", UserEntity.calculateLevel(totalSpending));
-        result.put("createdAt", user.getCreatedAt() != null ? user.getCreatedAt().toString() : null);
-        return ResponseEntity.ok(result);
+        return ResponseEntity.ok(userInfo(overview.get()));
     }
 
     /**
      * 更新用户个人信息
      */
     @PutMapping("/info")
-    public ResponseEntity<?> updateUserInfo(@RequestBody Map<String, Object> body, HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
-        if (user == null) {
+    public ResponseEntity<?> updateUserInfo(@RequestBody Map<String, Object> body, HttpServletRequest request,
+                                            HttpServletResponse response) {
+        UserPrincipal principal = getOrMaterializeUser(request, response);
+        Optional<UserEntity> userOpt = principal != null ? userService.getUserById(principal.id()) : Optional.empty();
+        if (userOpt.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "用户未登录"));
         }
+        UserEntity user = userOpt.get();
 
         if (body.containsKey("nickname")) {
             String nickname = body.get("nickname") != null ? body.get("nickname").toString().trim() : "";
@@ -135,12 +183,12 @@ public class UserApiController {
      */
     @PostMapping("/history/{productId}")
     public ResponseEntity<?> addHistory(@PathVariable Long productId, HttpServletRequest request, HttpServletResponse response) {
-        UserEntity user = getOrInitUser(request, response);
+        UserPrincipal user = getOrInitUser(request, response);
         Optional<ProductEntity> productOpt = productDbService.getProductById(productId);
         if (productOpt.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "商品不存在"));
         }
-        BrowsingHistoryEntity history = userService.addBrowsingHistory(user.getId(), productOpt.get());
+        BrowsingHistoryEntity history = userService.addBrowsingHistory(user.id(), productOpt.get());
         return ResponseEntity.ok(Map.of("success", true, "id", history.getId()));
     }
 
@@ -149,11 +197,11 @@ public class UserApiController {
      */
     @GetMapping("/history")
     public ResponseEntity<?> getHistory(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(List.of());
         }
-        return ResponseEntity.ok(userService.getBrowsingHistory(user.getId()));
+        return ResponseEntity.ok(userService.getBrowsingHistory(user.id()));
     }
 
     /**
@@ -161,11 +209,11 @@ public class UserApiController {
      */
     @DeleteMapping("/history")
     public ResponseEntity<?> clearHistory(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(Map.of("success", true));
         }
-        userService.clearBrowsingHistory(user.getId());
+        userService.clearBrowsingHistory(user.id());
         return ResponseEntity.ok(Map.of("success", true));
     }
 
@@ -176,12 +224,13 @@ public class UserApiController {
      */
     @PostMapping("/favorite/{productId}")
     public ResponseEntity<?> toggleFavorite(@PathVariable Long productId, HttpServletRequest request, HttpServletResponse response) {
-        UserEntity user = getOrInitUser(request, response);
+        UserPrincipal user = getOrInitUser(request, response);
         Optional<ProductEntity> productOpt = productDbService.getProductById(productId);
         if (productOpt.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "商品不存在"));
         }
-        boolean isFavorite = userService.toggleFavorite(user.getId(), productOpt.get());
+        boolean isFavorite = userService.toggleFavorite(user.id(), productOpt.get());
+        recommendationService.invalidate(user.id());
         return ResponseEntity.ok(Map.of("success", true, "isFavorite", isFavorite));
     }
 
@@ -190,11 +239,11 @@ public class UserApiController {
      */
     @GetMapping("/favorite/{productId}")
     public ResponseEntity<?> checkFavorite(@PathVariable Long productId, HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(Map.of("isFavorite", false));
         }
-        boolean isFavorite = userService.isFavorite(user.getId(), productId);
+        boolean isFavorite = userService.isFavorite(user.id(), productId);
         return ResponseEntity.ok(Map.of("isFavorite", isFavorite));
     }
 
@@ -203,11 +252,22 @@ public class UserApiController {
      */
     @GetMapping("/favorites")
     public ResponseEntity<?> getFavorites(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(List.of());
         }
-        return ResponseEntity.ok(userService.getFavorites(user.getId()));
+        return ResponseEntity.ok(userService.getFavorites(user.id()));
+    }
+
+    // ===== 推荐 =====
+
+    /**
+     * 猜你喜欢：根据当前用户的收藏、购物车和浏览记录推荐商品（未识别用户返回默认商品）
+     */
+    @GetMapping("/recommendations")
+    public ResponseEntity<?> getRecommendations(@RequestParam(defaultValue = "6") int limit, HttpServletRequest request) {
+        UserPrincipal user = getCurrentUser(request);
+        return ResponseEntity.ok(recommendationService.recommend(user != null ? user.id() : null, limit));
     }
 
     // ===== 购物车 =====
@@ -217,7 +277,7 @@ public class UserApiController {
      */
     @PostMapping("/cart")
     public ResponseEntity<?> addToCart(@RequestBody Map<String, Object> body, HttpServletRequest request, HttpServletResponse response) {
-        UserEntity user = getOrInitUser(request, response);
+        UserPrincipal user = getOrInitUser(request, response);
         
         if (body.get("productId") == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "商品ID不能为空"));
@@ -239,8 +299,23 @@ public class UserApiController {
             return ResponseEntity.badRequest().body(Map.of("error", "商品不存在"));
         }
         
-        CartItemEntity item = userService.addToCart(user.getId(), productOpt.get(), specName, quantity);
-        long cartCount = userService.getCartItemCount(user.getId());
+        // 有规格（SKU）的商品只能加入存在且有库存的规格，购物车记录规格价格
+        Double unitPrice = null;
+        ProductSkus skus = productDbService.getProductSkus(productId);
+        if (!skus.isEmpty()) {
+            int index = skus.indexOf(specName);
+            if (index < 0) {
+                return ResponseEntity.badRequest().body(Map.of("error", "请选择有效的商品规格"));
+            }
+            if (!skus.isAvailable(index)) {
+                return ResponseEntity.badRequest().body(Map.of("error", "该规格已售罄"));
+            }
+            unitPrice = skus.get(index).price();
+        }
+
+        CartItemEntity item = userService.addToCart(user.id(), productOpt.get(), specName, unitPrice, quantity);
+        recommendationService.invalidate(user.id());
+        long cartCount = userService.getCartItemCount(user.id());
         return ResponseEntity.ok(Map.of("success", true, "id", item.getId(), "cartCount", cartCount));
     }
 
@@ -249,11 +324,11 @@ public class UserApiController {
      */
     @GetMapping("/cart")
     public ResponseEntity<?> getCart(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(List.of());
         }
-        return ResponseEntity.ok(userService.getCartItems(user.getId()));
+        return ResponseEntity.ok(userService.getCartItems(user.id()));
     }
 
     /**
@@ -261,7 +336,7 @@ public class UserApiController {
      */
     @PutMapping("/cart/{itemId}")
     public ResponseEntity<?> updateCartItem(@PathVariable Long itemId, @RequestBody Map<String, Object> body, HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "用户未登录"));
         }
@@ -277,7 +352,7 @@ public class UserApiController {
         if (quantity < 1 || quantity > 999) {
             return ResponseEntity.badRequest().body(Map.of("error", "数量必须在1-999之间"));
         }
-        CartItemEntity item = userService.updateCartItemQuantity(itemId, quantity, user.getId());
+        CartItemEntity item = userService.updateCartItemQuantity(itemId, quantity, user.id());
         if (item == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "购物车项不存在"));
         }
@@ -289,7 +364,7 @@ public class UserApiController {
      */
     @PutMapping("/cart/{itemId}/select")
     public ResponseEntity<?> updateCartItemSelected(@PathVariable Long itemId, @RequestBody Map<String, Object> body, HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "用户未登录"));
         }
@@ -297,7 +372,7 @@ public class UserApiController {
             return ResponseEntity.badRequest().body(Map.of("error", "选中状态不能为空"));
         }
         Boolean selected = Boolean.valueOf(body.get("selected").toString());
-        CartItemEntity item = userService.updateCartItemSelected(itemId, selected, user.getId());
+        CartItemEntity item = userService.updateCartItemSelected(itemId, selected, user.id());
         if (item == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "购物车项不存在"));
         }
@@ -309,11 +384,12 @@ public class UserApiController {
      */
     @DeleteMapping("/cart/{itemId}")
     public ResponseEntity<?> removeCartItem(@PathVariable Long itemId, HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "用户未登录"));
         }
-        userService.removeCartItem(itemId, user.getId());
+        userService.removeCartItem(itemId, user.id());
+        recommendationService.invalidate(user.id());
         return ResponseEntity.ok(Map.of("success", true));
     }
 
@@ -322,11 +398,12 @@ public class UserApiController {
      */
     @DeleteMapping("/cart")
     public ResponseEntity<?> clearCart(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(Map.of("success", true));
         }
-        userService.clearCart(user.getId());
+        userService.clearCart(user.id());
+        recommendationService.invalidate(user.id());
         return ResponseEntity.ok(Map.of("success", true));
     }
 
@@ -334,13 +411,19 @@ public class UserApiController {
 
     /**
      * 提交订单
+     * 可携带Idempotency-Key请求头，同一幂等键重复提交时返回首次创建的订单
+     * 下单队列已满时返回429和Retry-After
      */
     @PostMapping("/checkout")
-    @Transactional
-    public ResponseEntity<?> checkout(@RequestBody Map<String, Object> body, HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+    public ResponseEntity<?> checkout(@RequestBody Map<String, Object> body,
+                                      @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                      HttpServletRequest request) {
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
-            return ResponseEntity.badRequest().body(Map.of("error", "请先初始化用户"));
+            // 临时游客的购物车为空
+            String error = userService.verifyProvisionalToken(getTokenFromCookie(request)).isPresent()
+                    ? "请选择要结算的商品" : "请先初始化用户";
+            return ResponseEntity.badRequest().body(Map.of("error", error));
         }
 
         String userName = body.get("userName") != null ? body.get("userName").toString().trim() : "";
@@ -368,92 +451,36 @@ public class UserApiController {
         if (remark.length() > 500) {
             return ResponseEntity.badRequest().body(Map.of("error", "备注长度不能超过500个字符"));
         }
-
-        // 获取选中的购物车商品
-        List<CartItemEntity> selectedItems = userService.getSelectedCartItems(user.getId());
-        if (selectedItems.isEmpty()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "请选择要结算的商品"));
-        }
-
-        // 验证库存并计算总价（使用当前数据库中的实际价格）
-        double totalAmount = 0;
-        int totalCount = 0;
-        StringBuilder priceChanges = new StringBuilder();
-        for (CartItemEntity item : selectedItems) {
-            Optional<ProductEntity> productOpt = productDbService.getProductById(item.getProductId());
-            if (productOpt.isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "商品 \"" + item.getProductTitle() + "\" 已下架"));
-            }
-            ProductEntity product = productOpt.get();
-            if (!Boolean.TRUE.equals(product.getActive())) {
-                return ResponseEntity.badRequest().body(Map.of("error", "商品 \"" + item.getProductTitle() + "\" 已下架"));
-            }
-            if (!product.isInStock()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "商品 \"" + item.getProductTitle() + "\" 已售罄"));
-            }
-            if (product.getStock() != null && product.getStock() < item.getQuantity()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "商品 \"" + item.getProductTitle() + "\" 库存不足，当前库存: " + product.getStock()));
-            }
-            // 检测价格变化，若价格已变需要用户重新确认
-            if (item.getProductPrice() != null && Math.abs(product.getPrice() - item.getProductPrice()) > 0.01) {
-                priceChanges.append(String.format("「%s」 ¥%.2f → ¥%.2f；", 
-                    item.getProductTitle(), item.getProductPrice(), product.getPrice()));
-                // 同步更新购物车中的价格快照
-                item.setProductPrice(product.getPrice());
-                userService.saveCartItem(item);
-            }
-            totalAmount += product.getPrice() * item.getQuantity();
-            totalCount += item.getQuantity();
-        }
-
-        // 若有价格变化，拒绝下单并告知用户
-        if (priceChanges.length() > 0) {
-            return ResponseEntity.badRequest().body(Map.of(
-                "error", "以下商品价格已变动，请确认后重新提交：" + priceChanges,
-                "priceChanged", true
-            ));
+        if (idempotencyKey != null && !idempotencyKey.matches("^[A-Za-z0-9_-]{1,64}$")) {
+            return ResponseEntity.badRequest().body(Map.of("error", "无效的幂等键"));
         }
 
-        // 扣减库存（使用悲观锁防止并发超卖，必须在创建订单前完成）
-        for (CartItemEntity item : selectedItems) {
-            Optional<ProductEntity> lockedProductOpt = productDbService.getProductByIdForUpdate(item.getProductId());
-            if (lockedProductOpt.isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "商品 \"" + item.getProductTitle() + "\" 已下架"));
-            }
-            ProductEntity lockedProduct = lockedProductOpt.get();
-            if (lockedProduct.getStock() != null) {
-                if (lockedProduct.getStock() < item.getQuantity()) {
-                    return ResponseEntity.badRequest().body(Map.of("error", "商品 \"" + item.getProductTitle() + "\" 库存不足，当前库存: " + lockedProduct.getStock()));
-                }
-                lockedProduct.setStock(lockedProduct.getStock() - item.getQuantity());
-                productDbService.saveProduct(lockedProduct);
+        CheckoutService.CheckoutResult checkout;
+        try {
+            checkout = checkoutService.checkout(user,
+                    new CheckoutService.CheckoutRequest(userName, userPhone, shippingAddress, remark), idempotencyKey);
+        } catch (CheckoutBusyException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(checkoutRetryAfterSeconds))
+                    .body(Map.of("error", "下单人数过多，请稍后重试"));
+        }
+        if (!checkout.isSuccess()) {
+            if (checkout.priceChanged()) {
+                return ResponseEntity.badRequest().body(Map.of("error", checkout.error(), "priceChanged", true));
             }
-        }
-
-        // 创建订单（库存已扣减）
-        OrderEntity order = new OrderEntity();
-        order.setUserId(user.getId());
-        order.setUserName(userName);
-        order.setUserPhone(userPhone);
-        order.setShippingAddress(shippingAddress);
-        order.setTotalAmount(totalAmount);
-        order.setProductCount(totalCount);
-        order.setRemark(remark);
-        order.setStatus("pending");
-        
-        OrderEntity savedOrder = orderService.saveOrder(order);
-
-        // 清除已下单的购物车商品
-        for (CartItemEntity item : selectedItems) {
-            userService.removeCartItem(item.getId(), user.getId());
+            return ResponseEntity.badRequest().body(Map.of("error", checkout.error()));
         }
 
         Map<String, Object> result = new HashMap<>();
         result.put("success", true);
-        result.put("orderNo", savedOrder.getOrderNo());
-        result.put("totalAmount", totalAmount);
-        result.put("productCount", totalCount);
-        return ResponseEntity.ok(result);
+        result.put("orderNo", checkout.orderNo());
+        result.put("totalAmount", checkout.totalAmount());
+        result.put("productCount", checkout.productCount());
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (checkout.replayed()) {
+            response.header(IDEMPOTENT_REPLAYED_HEADER, "true");
+        }
+        return response.body(result);
     }
 
     /**
@@ -461,11 +488,11 @@ public class UserApiController {
      */
     @GetMapping("/orders")
     public ResponseEntity<?> getUserOrders(HttpServletRequest request) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.ok(List.of());
         }
-        return ResponseEntity.ok(orderService.getOrdersByUserId(user.getId()));
+        return ResponseEntity.ok(orderService.getOrdersWithItemsByUserId(user.id()));
     }
 
     /**
@@ -502,7 +529,7 @@ public class UserApiController {
      */
     private ResponseEntity<?> validateUserOrder(HttpServletRequest request, Long orderId,
                                                  String requiredStatus, String statusError) {
-        UserEntity user = getCurrentUser(request);
+        UserPrincipal user = getCurrentUser(request);
         if (user == null) {
             return ResponseEntity.badRequest().body(Map.of("error", "用户未登录"));
         }
@@ -511,7 +538,7 @@ public class UserApiController {
             return ResponseEntity.badRequest().body(Map.of("error", "订单不存在"));
         }
         OrderEntity order = orderOpt.get();
-        if (!user.getId().equals(order.getUserId())) {
+        if (!user.id().equals(order.getUserId())) {
             return ResponseEntity.badRequest().body(Map.of("error", "无权操作此订单"));
         }
         if (!requiredStatus.equals(order.getStatus())) {
@@ -523,42 +550,104 @@ public class UserApiController {
     // ===== 辅助方法 =====
 
     private void setUserTokenCookie(HttpServletResponse response, String token) {
-        Cookie cookie = new Cookie("user_token", token);
-        cookie.setMaxAge(365 * 24 * 60 * 60); // 1年
-        cookie.setPath("/");
-        cookie.setHttpOnly(true);
-        cookie.setSecure(secureCookie);
-        cookie.setAttribute("SameSite", "Lax");
-        response.addCookie(cookie);
+        response.addCookie(CurrentUserInterceptor.tokenCookie(token, secureCookie));
     }
 
     private String getTokenFromCookie(HttpServletRequest request) {
-        Cookie[] cookies = request.getCookies();
-        if (cookies != null) {
-            for (Cookie cookie : cookies) {
-                if ("user_token".equals(cookie.getName())) {
-                    return cookie.getValue();
-                }
-            }
-        }
-        return null;
+        Cookie cookie = WebUtils.getCookie(request, CurrentUserInterceptor.TOKEN_COOKIE);
+        return cookie != null ? cookie.getValue() : null;
     }
 
-    private UserEntity getCurrentUser(HttpServletRequest request) {
-        String token = getTokenFromCookie(request);
-        if (token == null || token.isEmpty()) {
+    /**
+     * 当前用户身份（由CurrentUserInterceptor解析），未识别时返回null
+     */
+    private UserPrincipal getCurrentUser(HttpServletRequest request) {
+        return (UserPrincipal) request.getAttribute(UserPrincipal.REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * 当前用户身份；临时游客在此时创建用户记录并换发正式令牌，其他情况返回null
+     */
+    private UserPrincipal getOrMaterializeUser(HttpServletRequest request, HttpServletResponse response) {
+        UserPrincipal principal = getCurrentUser(request);
+        if (principal != null) {
+            return principal;
+        }
+        Optional<UserEntity> user = userService.materializeGuest(getTokenFromCookie(request));
+        if (user.isEmpty()) {
             return null;
         }
-        return userService.getUserByToken(token).orElse(null);
+        return setCurrentUser(request, response, user.get());
     }
 
-    private UserEntity getOrInitUser(HttpServletRequest request, HttpServletResponse response) {
-        String token = getTokenFromCookie(request);
-        UserEntity user = userService.getOrCreateUser(token);
-        
+    /**
+     * 当前用户身份，未识别时创建用户（临时游客沿用游客ID）并设置cookie
+     */
+    private UserPrincipal getOrInitUser(HttpServletRequest request, HttpServletResponse response) {
+        UserPrincipal principal = getOrMaterializeUser(request, response);
+        if (principal != null) {
+            return principal;
+        }
+        return setCurrentUser(request, response, userService.createGuest());
+    }
+
+    private UserPrincipal setCurrentUser(HttpServletRequest request, HttpServletResponse response, UserEntity user) {
         // 设置cookie
-        setUserTokenCookie(response, user.getToken());
-        
-        return user;
+        setUserTokenCookie(response, userService.issueToken(user));
+
+        UserPrincipal principal = UserPrincipal.of(user);
+        request.setAttribute(UserPrincipal.REQUEST_ATTRIBUTE, principal);
+        return principal;
+    }
+
+    /**
+     * 新访客只签发临时令牌，首次加购、收藏、浏览等操作时才创建用户
+     * @return 游客ID
+     */
+    private String initProvisionalGuest(String token, HttpServletResponse response) {
+        Optional<String> guestId = userService.verifyProvisionalToken(token);
+        if (guestId.isEmpty()) {
+            token = userService.issueProvisionalToken();
+            guestId = userService.verifyProvisionalToken(token);
+        }
+        setUserTokenCookie(response, token);
+        return guestId.get();
+    }
+
+    private static Map<String, Object> userInfo(UserOverview overview) {
+        UserEntity user = overview.user();
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", user.getId());
+        result.put("nickname", user.getNickname());
+        result.put("userType", user.getUserType());
+        result.put("phone", user.getPhone());
+        result.put("email", user.getEmail());
+        result.put("address", user.getAddress());
+        result.put("favoriteCount", overview.favoriteCount());
+        result.put("cartCount", overview.cartCount());
+        result.put("orderCount", overview.orderCount());
+        result.put("orderStatusCounts", overview.orderCountByStatus());
+        result.put("totalSpending", overview.totalSpending());
+        result.put("level", overview.level());
+        result.put("createdAt", user.getCreatedAt() != null ? user.getCreatedAt().toString() : null);
+        return result;
+    }
+
+    private static Map<String, Object> provisionalGuestInfo(String guestId) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", null);
+        result.put("nickname", UserService.guestNickname(guestId));
+        result.put("userType", "guest");
+        result.put("phone", null);
+        result.put("email", null);
+        result.put("address", null);
+        result.put("favoriteCount", 0L);
+        result.put("cartCount", 0L);
+        result.put("orderCount", 0L);
+        result.put("orderStatusCounts", Map.of());
+        result.put("totalSpending", 0.0);
+        result.put("level", UserEntity.calculateLevel(0));
+        result.put("createdAt", null);
+        return result;
     }
 }
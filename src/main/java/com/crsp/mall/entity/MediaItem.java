@@ -0,0 +1,17 @@
+package com.crsp.mall.entity;
+
+/**
+ * 商品媒体项（展示/详情图片或视频）
+ * @param type image 或 video
+ * @param url 媒体链接
+ */
+public record MediaItem(String type, String url) {
+
+    public boolean isImage() {
+        return "image".equals(type);
+    }
+
+    public boolean isVideo() {
+        return "video".equals(type);
+    }
+}
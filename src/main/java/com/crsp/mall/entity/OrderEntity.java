@@ -1,8 +1,14 @@
 package com.crsp.mall.entity;
 
+import com.crsp.mall.support.SnowflakeIdGenerator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
-import java.util.UUID;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 
 /**
  * 订单实体类
@@ -43,6 +49,22 @@ public class OrderEntity {
     @Column(length = 500)
     private String remark;
     
+    // 下单幂等键（用户ID:客户端Idempotency-Key），重复提交时据此返回原订单
+    @Column(name = "idempotency_key", unique = true, length = 100)
+    private String idempotencyKey;
+    
+    // 下单时扣减的库存（商品ID:数量,...），订单取消时据此归还
+    @Column(name = "reserved_stock", length = 4000)
+    private String reservedStock;
+
+    // 下单时扣减的规格库存（规格ID:数量,...）
+    @Column(name = "reserved_sku_stock", length = 4000)
+    private String reservedSkuStock;
+
+    // 订单明细（不映射为关联，按需由OrderService批量读取后填充）
+    @Transient
+    private List<OrderItemEntity> items;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
     
@@ -63,10 +85,17 @@ public class OrderEntity {
         createdAt = LocalDateTime.now();
         updatedAt = LocalDateTime.now();
         if (orderNo == null) {
-            // Use UUID for guaranteed uniqueness
-            orderNo = "ORD" + UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase();
+            orderNo = formatOrderNo(SnowflakeIdGenerator.getDefault().nextId());
         }
     }
+
+    /**
+     * 订单号：ORD + 19位定长雪花ID，新订单号之间按生成时间递增，写入唯一索引时集中在同一区间末尾。
+     * 与旧的 ORD + 16位十六进制（UUID）订单号交错排列，按下单时间排序应使用created_at
+     */
+    public static String formatOrderNo(long id) {
+        return String.format("ORD%019d", id);
+    }
     
     @PreUpdate
     protected void onUpdate() {
@@ -104,6 +133,28 @@ public class OrderEntity {
     public String getRemark() { return remark; }
     public void setRemark(String remark) { this.remark = remark; }
     
+    @JsonIgnore
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+    
+    /**
+     * 下单时扣减的库存：商品ID -> 数量
+     */
+    @JsonIgnore
+    public Map<Long, Integer> getReservedStock() { return decodeQuantities(reservedStock); }
+    public void setReservedStock(Map<Long, Integer> quantities) { this.reservedStock = encodeQuantities(quantities); }
+
+    /**
+     * 下单时扣减的规格库存：规格ID -> 数量
+     */
+    @JsonIgnore
+    public Map<Long, Integer> getReservedSkuStock() { return decodeQuantities(reservedSkuStock); }
+    public void setReservedSkuStock(Map<Long, Integer> quantities) { this.reservedSkuStock = encodeQuantities(quantities); }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<OrderItemEntity> getItems() { return items; }
+    public void setItems(List<OrderItemEntity> items) { this.items = items; }
+
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     
@@ -129,4 +180,22 @@ public class OrderEntity {
             default -> "未知";
         };
     }
+
+    private static Map<Long, Integer> decodeQuantities(String encoded) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        if (encoded != null && !encoded.isEmpty()) {
+            for (String item : encoded.split(",")) {
+                int colon = item.indexOf(':');
+                quantities.merge(Long.parseLong(item.substring(0, colon)),
+                        Integer.parseInt(item.substring(colon + 1)), Integer::sum);
+            }
+        }
+        return quantities;
+    }
+
+    private static String encodeQuantities(Map<Long, Integer> quantities) {
+        StringJoiner joiner = new StringJoiner(",");
+        quantities.forEach((id, quantity) -> joiner.add(id + ":" + quantity));
+        return joiner.length() > 0 ? joiner.toString() : null;
+    }
 }
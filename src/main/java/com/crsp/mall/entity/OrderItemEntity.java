@@ -0,0 +1,75 @@
+package com.crsp.mall.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 订单明细实体类 - 下单时的商品、规格、数量和单价快照
+ * ID使用序列（每次预取50个），同一订单的明细可以按JDBC批量插入
+ */
+@Entity
+@Table(name = "order_items", indexes = {
+    @Index(name = "idx_order_items_order_id", columnList = "order_id")
+})
+public class OrderItemEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_item_seq")
+    @SequenceGenerator(name = "order_item_seq", sequenceName = "order_item_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "order_id", nullable = false)
+    private Long orderId;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    // 规格ID，商品没有规格时为空
+    @Column(name = "sku_id")
+    private Long skuId;
+
+    @Column(name = "product_title")
+    private String productTitle;
+
+    @Column(name = "product_image")
+    private String productImage;
+
+    @Column(name = "spec_name")
+    private String specName;
+
+    @Column(nullable = false)
+    private int quantity;
+
+    // 下单时的成交单价
+    @Column(name = "unit_price", nullable = false)
+    private double unitPrice;
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getOrderId() { return orderId; }
+    public void setOrderId(Long orderId) { this.orderId = orderId; }
+
+    public Long getProductId() { return productId; }
+    public void setProductId(Long productId) { this.productId = productId; }
+
+    public Long getSkuId() { return skuId; }
+    public void setSkuId(Long skuId) { this.skuId = skuId; }
+
+    public String getProductTitle() { return productTitle; }
+    public void setProductTitle(String productTitle) { this.productTitle = productTitle; }
+
+    public String getProductImage() { return productImage; }
+    public void setProductImage(String productImage) { this.productImage = productImage; }
+
+    public String getSpecName() { return specName; }
+    public void setSpecName(String specName) { this.specName = specName; }
+
+    public int getQuantity() { return quantity; }
+    public void setQuantity(int quantity) { this.quantity = quantity; }
+
+    public double getUnitPrice() { return unitPrice; }
+    public void setUnitPrice(double unitPrice) { this.unitPrice = unitPrice; }
+
+    public double getSubtotal() { return unitPrice * quantity; }
+}
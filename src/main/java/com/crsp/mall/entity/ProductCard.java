@@ -0,0 +1,60 @@
+package com.crsp.mall.entity;
+
+import java.time.LocalDateTime;
+
+/**
+ * 商品列表卡片 - 列表页使用的轻量投影
+ * 不包含展示/详情媒体JSON和规格JSON，首图/首个视频地址直接取自商品表的派生列
+ */
+public record ProductCard(
+        Long id,
+        String title,
+        double price,
+        double originalPrice,
+        long soldCount,
+        String sales,
+        String icon,
+        String bgColor,
+        String tag,
+        String firstImageUrl,
+        String firstVideoUrl,
+        LocalDateTime updatedAt) {
+
+    /**
+     * JPQL构造器投影使用：销量显示文本由已售数量生成
+     */
+    public ProductCard(Long id, String title, double price, double originalPrice, Long soldCount,
+                       String icon, String bgColor, String tag, String firstImageUrl, String firstVideoUrl,
+                       LocalDateTime updatedAt) {
+        this(id, title, price, originalPrice, soldCount != null ? soldCount : 0L,
+                ProductEntity.formatSales(soldCount != null ? soldCount : 0L),
+                icon, bgColor, tag, firstImageUrl, firstVideoUrl, updatedAt);
+    }
+
+    public static ProductCard of(ProductEntity product) {
+        return new ProductCard(product.getId(), product.getTitle(), product.getPrice(), product.getOriginalPrice(),
+                product.getSoldCount(), product.getIcon(), product.getBgColor(), product.getTag(),
+                product.getFirstImageUrl(), product.getFirstVideoUrl(), product.getUpdatedAt());
+    }
+
+    /**
+     * 返回更新已售数量后的卡片
+     */
+    public ProductCard withSoldCount(long newSoldCount) {
+        return new ProductCard(id, title, price, originalPrice, newSoldCount, icon, bgColor, tag,
+                firstImageUrl, firstVideoUrl, updatedAt);
+    }
+
+    /**
+     * 除更新时间和精确销量外卡片内容是否相同（即列表展示是否不变，销量只比较显示文本）
+     */
+    public boolean sameListing(ProductCard other) {
+        return other != null && equals(new ProductCard(other.id, other.title, other.price, other.originalPrice,
+                soldCount, other.sales, other.icon, other.bgColor, other.tag, other.firstImageUrl, other.firstVideoUrl,
+                updatedAt));
+    }
+
+    public boolean hasDisplayMedia() {
+        return firstImageUrl != null || firstVideoUrl != null;
+    }
+}
@@ -1,10 +1,15 @@
 package com.crsp.mall.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 商品实体类
@@ -27,8 +32,13 @@ public class ProductEntity {
     
     private double originalPrice;
     
+    // 旧版销量显示文本，保存时由soldCount生成，仅用于兼容旧数据
     private String sales;
     
+    // 已售数量：只通过原子累加语句更新，保存实体时不写入，避免覆盖并发累加的结果
+    @Column(name = "sold_count", updatable = false)
+    private Long soldCount;
+    
     private String icon;
     
     private String bgColor;
@@ -42,6 +52,10 @@ public class ProductEntity {
     
     private Integer stock;
     
+    // 秒杀库存模式：下单时在内存中扣减库存，定期批量写回stock
+    @Column(name = "flash_sale")
+    private Boolean flashSale = false;
+    
     private Boolean active = true;
     
     // 商品展示图片/视频 (JSON格式存储多个媒体项，每项包含type: image/video, url: 链接)
@@ -52,6 +66,23 @@ public class ProductEntity {
     @Column(name = "detail_media", length = 10000)
     private String detailMedia;
     
+    // 以下三列由displayMedia派生，设置displayMedia时同步计算，列表页无需解析JSON
+    @Column(name = "first_image_url", length = 1000)
+    private String firstImageUrl;
+    
+    @Column(name = "first_video_url", length = 1000)
+    private String firstVideoUrl;
+    
+    @Column(name = "media_count")
+    private Integer mediaCount;
+    
+    // 解析后的媒体列表（按需解析，不持久化）
+    @Transient
+    private List<MediaItem> displayMediaItems;
+    
+    @Transient
+    private List<MediaItem> detailMediaItems;
+    
     // 商品规格列表 (JSON格式存储，包含name, image, price字段)
     @Column(name = "specifications", length = 10000)
     private String specifications;
@@ -66,11 +97,24 @@ public class ProductEntity {
     protected void onCreate() {
         createdAt = LocalDateTime.now();
         updatedAt = LocalDateTime.now();
+        if (soldCount == null) {
+            soldCount = 0L;
+        }
+        sales = formatSales(soldCount);
+        if (mediaCount == null) {
+            refreshMediaSummary();
+        }
     }
     
     @PreUpdate
     protected void onUpdate() {
         updatedAt = LocalDateTime.now();
+        if (soldCount != null) {
+            sales = formatSales(soldCount);
+        }
+        if (mediaCount == null) {
+            refreshMediaSummary();
+        }
     }
     
     // Getters and Setters
@@ -86,8 +130,24 @@ public class ProductEntity {
     public double getOriginalPrice() { return originalPrice; }
     public void setOriginalPrice(double originalPrice) { this.originalPrice = originalPrice; }
     
-    public String getSales() { return sales; }
-    public void setSales(String sales) { this.sales = sales; }
+    /**
+     * 销量显示文本（由已售数量生成），如 "已售 8500件"、"已售 2.3万件"
+     */
+    public String getSales() {
+        return soldCount != null ? formatSales(soldCount) : sales;
+    }
+    
+    public Long getSoldCount() { return soldCount; }
+    /**
+     * 仅对新建商品生效（初始销量），已有商品的销量由下单累加
+     */
+    public void setSoldCount(Long soldCount) { this.soldCount = soldCount; }
+    
+    /**
+     * 旧版销量文本，仅用于回填soldCount（不对外输出）
+     */
+    @JsonIgnore
+    public String getLegacySales() { return sales; }
     
     public String getIcon() { return icon; }
     public void setIcon(String icon) { this.icon = icon; }
@@ -113,6 +173,9 @@ public class ProductEntity {
     
     public Integer getStock() { return stock; }
     public void setStock(Integer stock) { this.stock = stock; }
+    
+    public Boolean getFlashSale() { return flashSale; }
+    public void setFlashSale(Boolean flashSale) { this.flashSale = flashSale; }
 
     /**
      * Stock is treated as available when value is null (unlimited/unspecified).
@@ -145,10 +208,17 @@ public class ProductEntity {
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
     
     public String getDisplayMedia() { return displayMedia; }
-    public void setDisplayMedia(String displayMedia) { this.displayMedia = displayMedia; }
+    public void setDisplayMedia(String displayMedia) {
+        this.displayMedia = displayMedia;
+        this.displayMediaItems = null;
+        refreshMediaSummary();
+    }
     
     public String getDetailMedia() { return detailMedia; }
-    public void setDetailMedia(String detailMedia) { this.detailMedia = detailMedia; }
+    public void setDetailMedia(String detailMedia) {
+        this.detailMedia = detailMedia;
+        this.detailMediaItems = null;
+    }
     
     public String getSpecifications() { return specifications; }
     public void setSpecifications(String specifications) { this.specifications = specifications; }
@@ -157,60 +227,155 @@ public class ProductEntity {
      * 获取第一个展示图片的URL（用于商品列表显示）
      * @return 图片URL，如果没有则返回null
      */
-    public String getFirstImageUrl() {
-        if (displayMedia == null || displayMedia.trim().isEmpty()) {
-            return null;
+    public String getFirstImageUrl() { return firstImageUrl; }
+    
+    /**
+     * 获取第一个展示视频的URL
+     * @return 视频URL，如果没有则返回null
+     */
+    public String getFirstVideoUrl() { return firstVideoUrl; }
+    
+    /**
+     * 展示媒体数量；为null表示尚未计算（旧数据，启动时回填）
+     */
+    public Integer getMediaCount() { return mediaCount; }
+    
+    /**
+     * 检查是否有展示媒体（图片或视频）
+     * @return true如果有展示媒体
+     */
+    public boolean hasDisplayMedia() {
+        return firstImageUrl != null || firstVideoUrl != null;
+    }
+    
+    /**
+     * 展示媒体列表（首次访问时解析并缓存在实例上）
+     */
+    @JsonIgnore
+    public List<MediaItem> getDisplayMediaItems() {
+        if (displayMediaItems == null) {
+            displayMediaItems = parseMediaItems(id, displayMedia);
+        }
+        return displayMediaItems;
+    }
+    
+    /**
+     * 详情媒体列表（首次访问时解析并缓存在实例上）
+     */
+    @JsonIgnore
+    public List<MediaItem> getDetailMediaItems() {
+        if (detailMediaItems == null) {
+            detailMediaItems = parseMediaItems(id, detailMedia);
+        }
+        return detailMediaItems;
+    }
+    
+    /**
+     * 根据displayMedia重新计算首图、首个视频和媒体数量
+     */
+    public void refreshMediaSummary() {
+        List<MediaItem> items = getDisplayMediaItems();
+        String image = null;
+        String video = null;
+        for (MediaItem item : items) {
+            if (image == null && item.isImage()) {
+                image = item.url();
+            } else if (video == null && item.isVideo()) {
+                video = item.url();
+            }
+        }
+        this.firstImageUrl = image;
+        this.firstVideoUrl = video;
+        this.mediaCount = items.size();
+    }
+    
+    /**
+     * 生成销量显示文本：不足一万显示整数，一万及以上以"万"为单位保留一位小数（向下取整）
+     */
+    public static String formatSales(long soldCount) {
+        if (soldCount < 10_000) {
+            return "已售 " + Math.max(soldCount, 0) + "件";
+        }
+        long tenths = soldCount / 1_000;
+        String value = tenths % 10 == 0 ? String.valueOf(tenths / 10) : (tenths / 10) + "." + (tenths % 10);
+        return "已售 " + value + "万件";
+    }
+    
+    /**
+     * 从旧版销量文本（如 "已售 2.3万件"）解析已售数量，无法解析时返回0
+     */
+    public static long parseSales(String sales) {
+        if (sales == null) {
+            return 0;
+        }
+        java.util.regex.Matcher matcher = SALES_PATTERN.matcher(sales);
+        if (!matcher.find()) {
+            return 0;
+        }
+        double value = Double.parseDouble(matcher.group(1));
+        return Math.round(matcher.group(2) != null ? value * 10_000 : value);
+    }
+    
+    private static final java.util.regex.Pattern SALES_PATTERN = java.util.regex.Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(万)?");
+    
+    /**
+     * 解析规格JSON数组，忽略缺少名称的项；解析失败时返回空列表
+     */
+    @JsonIgnore
+    public List<SpecItem> getSpecificationItems() {
+        if (specifications == null || specifications.trim().isEmpty()) {
+            return List.of();
         }
         try {
-            // 简单解析JSON数组获取第一个图片
-            // 使用静态ObjectMapper以提高性能
-            java.util.List<java.util.Map<String, String>> mediaList = OBJECT_MAPPER.readValue(
-                displayMedia, 
-                new com.fasterxml.jackson.core.type.TypeReference<java.util.List<java.util.Map<String, String>>>() {}
-            );
-            for (java.util.Map<String, String> media : mediaList) {
-                if ("image".equals(media.get("type")) && media.get("url") != null) {
-                    return media.get("url");
+            List<SpecItem> items = new ArrayList<>();
+            for (SpecItem item : OBJECT_MAPPER.readValue(specifications, SpecItem[].class)) {
+                if (item != null && item.name() != null && !item.name().trim().isEmpty()) {
+                    items.add(item);
                 }
             }
+            return items;
         } catch (Exception e) {
-            LOGGER.warn("商品ID={}的displayMedia JSON解析失败: {}", id, e.getMessage());
+            LOGGER.warn("商品ID={}的规格JSON解析失败: {}", id, e.getMessage());
+            return List.of();
         }
-        return null;
     }
-    
+
     /**
-     * 获取第一个展示视频的URL
-     * @return 视频URL，如果没有则返回null
+     * 以规格列表重写规格JSON
      */
-    public String getFirstVideoUrl() {
-        if (displayMedia == null || displayMedia.trim().isEmpty()) {
-            return null;
+    public void setSpecificationItems(List<SpecItem> items) {
+        try {
+            this.specifications = items.isEmpty() ? null : OBJECT_MAPPER.writeValueAsString(items);
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalStateException("规格序列化失败", e);
+        }
+    }
+
+    /**
+     * 解析媒体JSON数组，忽略缺少url的项；解析失败时返回空列表
+     */
+    static List<MediaItem> parseMediaItems(Long productId, String mediaJson) {
+        if (mediaJson == null || mediaJson.trim().isEmpty()) {
+            return List.of();
         }
         try {
-            java.util.List<java.util.Map<String, String>> mediaList = OBJECT_MAPPER.readValue(
-                displayMedia, 
-                new com.fasterxml.jackson.core.type.TypeReference<java.util.List<java.util.Map<String, String>>>() {}
+            List<Map<String, String>> mediaList = OBJECT_MAPPER.readValue(
+                mediaJson, 
+                new com.fasterxml.jackson.core.type.TypeReference<List<Map<String, String>>>() {}
             );
-            for (java.util.Map<String, String> media : mediaList) {
-                if ("video".equals(media.get("type")) && media.get("url") != null) {
-                    return media.get("url");
+            List<MediaItem> items = new ArrayList<>(mediaList.size());
+            for (Map<String, String> media : mediaList) {
+                if (media != null && media.get("url") != null) {
+                    items.add(new MediaItem(media.get("type"), media.get("url")));
                 }
             }
+            return Collections.unmodifiableList(items);
         } catch (Exception e) {
-            LOGGER.warn("商品ID={}的displayMedia视频JSON解析失败: {}", id, e.getMessage());
+            LOGGER.warn("商品ID={}的媒体JSON解析失败: {}", productId, e.getMessage());
+            return List.of();
         }
-        return null;
     }
     
     // 静态ObjectMapper实例，线程安全可复用
     private static final com.fasterxml.jackson.databind.ObjectMapper OBJECT_MAPPER = new com.fasterxml.jackson.databind.ObjectMapper();
-    
-    /**
-     * 检查是否有展示媒体（图片或视频）
-     * @return true如果有展示媒体
-     */
-    public boolean hasDisplayMedia() {
-        return getFirstImageUrl() != null || getFirstVideoUrl() != null;
-    }
 }
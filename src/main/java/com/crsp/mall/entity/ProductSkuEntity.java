@@ -0,0 +1,57 @@
+package com.crsp.mall.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 商品规格（SKU）实体类 - 每个规格一行，有独立的价格和库存
+ */
+@Entity
+@Table(name = "product_skus", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"product_id", "spec_name"})
+})
+public class ProductSkuEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(name = "spec_name", nullable = false)
+    private String specName;
+
+    @Column(length = 1000)
+    private String image;
+
+    // 规格价格，为空时使用商品价格
+    private Double price;
+
+    // 规格库存，为空表示不限量
+    private Integer stock;
+
+    @Column(name = "sort_order", nullable = false)
+    private int sortOrder;
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getProductId() { return productId; }
+    public void setProductId(Long productId) { this.productId = productId; }
+
+    public String getSpecName() { return specName; }
+    public void setSpecName(String specName) { this.specName = specName; }
+
+    public String getImage() { return image; }
+    public void setImage(String image) { this.image = image; }
+
+    public Double getPrice() { return price; }
+    public void setPrice(Double price) { this.price = price; }
+
+    public Integer getStock() { return stock; }
+    public void setStock(Integer stock) { this.stock = stock; }
+
+    public int getSortOrder() { return sortOrder; }
+    public void setSortOrder(int sortOrder) { this.sortOrder = sortOrder; }
+}
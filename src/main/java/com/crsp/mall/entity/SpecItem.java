@@ -0,0 +1,15 @@
+package com.crsp.mall.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * 商品规格项（后台表单提交的规格JSON）
+ * @param name 规格名称
+ * @param image 规格图片
+ * @param price 规格价格，为空或不大于0时使用商品价格
+ * @param stock 规格库存，只在表单提交时携带，保存到规格（SKU）表；为空表示不限量
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record SpecItem(String name, String image, Double price, Integer stock) {}
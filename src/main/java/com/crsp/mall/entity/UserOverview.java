@@ -0,0 +1,24 @@
+package com.crsp.mall.entity;
+
+import java.util.Map;
+
+/**
+ * 用户概览 - 个人资料、收藏/购物车数量和各状态订单数，页面加载时一次返回
+ * @param orderCountByStatus 订单状态 -> 订单数（没有订单的状态不包含在内）
+ * @param totalSpending 非取消订单的消费总额
+ */
+public record UserOverview(
+        UserEntity user,
+        long favoriteCount,
+        long cartCount,
+        Map<String, Long> orderCountByStatus,
+        double totalSpending) {
+
+    public long orderCount() {
+        return orderCountByStatus.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public String level() {
+        return UserEntity.calculateLevel(totalSpending);
+    }
+}
@@ -0,0 +1,16 @@
+package com.crsp.mall.entity;
+
+/**
+ * 当前用户身份 - 由token解析出的不可变用户标识，缓存后供各接口识别用户，不含个人资料
+ */
+public record UserPrincipal(Long id, String userType, boolean active) {
+
+    /**
+     * 解析后的当前用户在请求中的属性名（未识别用户时不设置）
+     */
+    public static final String REQUEST_ATTRIBUTE = UserPrincipal.class.getName();
+
+    public static UserPrincipal of(UserEntity user) {
+        return new UserPrincipal(user.getId(), user.getUserType(), !Boolean.FALSE.equals(user.getActive()));
+    }
+}
@@ -1,7 +1,10 @@
 package com.crsp.mall.repository;
 
 import com.crsp.mall.entity.BrowsingHistoryEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -15,9 +18,18 @@ public interface BrowsingHistoryRepository extends JpaRepository<BrowsingHistory
     
     List<BrowsingHistoryEntity> findByUserIdOrderByViewedAtDesc(Long userId);
     
+    List<BrowsingHistoryEntity> findTop20ByUserIdOrderByViewedAtDesc(Long userId);
+    
     Optional<BrowsingHistoryEntity> findTopByUserIdAndProductIdOrderByViewedAtDesc(Long userId, Long productId);
     
     long countByUserId(Long userId);
     
     void deleteByUserId(Long userId);
+
+    /**
+     * 按ID升序读取指定ID之后的记录（用户、商品），用于增量计算相关商品
+     */
+    @Query("SELECT h.id AS id, h.userId AS userId, h.productId AS productId FROM BrowsingHistoryEntity h "
+            + "WHERE h.id > :afterId ORDER BY h.id")
+    List<ProductInteraction> findInteractionsAfter(@Param("afterId") Long afterId, Pageable pageable);
 }
@@ -1,7 +1,10 @@
 package com.crsp.mall.repository;
 
 import com.crsp.mall.entity.CartItemEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -15,6 +18,8 @@ public interface CartItemRepository extends JpaRepository<CartItemEntity, Long>
     
     List<CartItemEntity> findByUserIdOrderByCreatedAtDesc(Long userId);
     
+    List<CartItemEntity> findTop20ByUserIdOrderByCreatedAtDesc(Long userId);
+    
     List<CartItemEntity> findByUserIdAndSelectedTrue(Long userId);
     
     Optional<CartItemEntity> findByUserIdAndProductIdAndSpecName(Long userId, Long productId, String specName);
@@ -22,4 +27,11 @@ public interface CartItemRepository extends JpaRepository<CartItemEntity, Long>
     void deleteByUserId(Long userId);
     
     long countByUserId(Long userId);
+
+    /**
+     * 按ID升序读取指定ID之后的记录（用户、商品），用于增量计算相关商品
+     */
+    @Query("SELECT c.id AS id, c.userId AS userId, c.productId AS productId FROM CartItemEntity c "
+            + "WHERE c.id > :afterId ORDER BY c.id")
+    List<ProductInteraction> findInteractionsAfter(@Param("afterId") Long afterId, Pageable pageable);
 }
@@ -15,6 +15,8 @@ public interface FavoriteRepository extends JpaRepository<FavoriteEntity, Long>
     
     List<FavoriteEntity> findByUserIdOrderByCreatedAtDesc(Long userId);
     
+    List<FavoriteEntity> findTop20ByUserIdOrderByCreatedAtDesc(Long userId);
+    
     Optional<FavoriteEntity> findByUserIdAndProductId(Long userId, Long productId);
     
     boolean existsByUserIdAndProductId(Long userId, Long productId);
@@ -0,0 +1,27 @@
+package com.crsp.mall.repository;
+
+import com.crsp.mall.entity.OrderItemEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 订单明细数据访问接口
+ */
+@Repository
+public interface OrderItemRepository extends JpaRepository<OrderItemEntity, Long> {
+
+    /**
+     * 一次查询读取多个订单的明细（按订单、明细ID排序）
+     */
+    List<OrderItemEntity> findByOrderIdInOrderByOrderIdAscIdAsc(Collection<Long> orderIds);
+
+    @Modifying
+    @Query("DELETE FROM OrderItemEntity i WHERE i.orderId = :orderId")
+    void deleteByOrderId(@Param("orderId") Long orderId);
+}
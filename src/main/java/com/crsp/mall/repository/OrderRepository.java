@@ -1,11 +1,13 @@
 package com.crsp.mall.repository;
 
 import com.crsp.mall.entity.OrderEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,6 +19,8 @@ public interface OrderRepository extends JpaRepository<OrderEntity, Long> {
     
     Optional<OrderEntity> findByOrderNo(String orderNo);
     
+    Optional<OrderEntity> findByIdempotencyKey(String idempotencyKey);
+    
     List<OrderEntity> findByStatus(String status);
     
     List<OrderEntity> findByUserIdOrderByCreatedAtDesc(Long userId);
@@ -25,6 +29,22 @@ public interface OrderRepository extends JpaRepository<OrderEntity, Long> {
 
     long countByUserId(Long userId);
 
+    List<OrderEntity> findByIdInAndStatus(Collection<Long> ids, String status);
+
+    /**
+     * 按ID分批读取待付款订单的下单时间（ID大于afterId）
+     */
+    @Query("SELECT o.id AS id, o.createdAt AS createdAt FROM OrderEntity o "
+            + "WHERE o.status = 'pending' AND o.id > :afterId ORDER BY o.id")
+    List<PendingOrder> findPendingAfter(@Param("afterId") Long afterId, Pageable pageable);
+
     @Query("SELECT COALESCE(SUM(o.totalAmount), 0) FROM OrderEntity o WHERE o.userId = :userId AND o.status <> 'cancelled'")
     double sumTotalAmountByUserIdExcludingCancelled(@Param("userId") Long userId);
+
+    /**
+     * 按状态分组统计用户的订单数和金额
+     */
+    @Query("SELECT o.status AS status, COUNT(o) AS orderCount, SUM(o.totalAmount) AS totalAmount "
+            + "FROM OrderEntity o WHERE o.userId = :userId GROUP BY o.status")
+    List<OrderStatusCount> countByUserIdGroupByStatus(@Param("userId") Long userId);
 }
@@ -0,0 +1,10 @@
+package com.crsp.mall.repository;
+
+/**
+ * 用户某一状态的订单数和金额合计
+ */
+public interface OrderStatusCount {
+    String getStatus();
+    long getOrderCount();
+    double getTotalAmount();
+}
@@ -0,0 +1,11 @@
+package com.crsp.mall.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 待付款订单的下单时间，用于重建超时取消定时器
+ */
+public interface PendingOrder {
+    Long getId();
+    LocalDateTime getCreatedAt();
+}
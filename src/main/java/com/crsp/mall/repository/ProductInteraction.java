@@ -0,0 +1,10 @@
+package com.crsp.mall.repository;
+
+/**
+ * 用户与商品的一次交互（浏览、加购），用于计算相关商品
+ */
+public interface ProductInteraction {
+    Long getId();
+    Long getUserId();
+    Long getProductId();
+}
@@ -1,15 +1,17 @@
 package com.crsp.mall.repository;
 
+import com.crsp.mall.entity.ProductCard;
 import com.crsp.mall.entity.ProductEntity;
-import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 /**
  * 商品数据访问接口
@@ -19,18 +21,96 @@ public interface ProductRepository extends JpaRepository<ProductEntity, Long> {
     
     List<ProductEntity> findByActiveTrue();
 
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
-    @Query("SELECT p FROM ProductEntity p WHERE p.id = :id")
-    Optional<ProductEntity> findByIdForUpdate(@Param("id") Long id);
-
+    /**
+     * 上架商品列表卡片（不加载详情媒体和规格JSON）
+     */
     @Query("""
-        SELECT p FROM ProductEntity p
-        WHERE p.active = true AND (
-            LOWER(p.title) LIKE LOWER(CONCAT('%', :keyword, '%'))
-            OR LOWER(COALESCE(p.tag, '')) LIKE LOWER(CONCAT('%', :keyword, '%'))
-            OR LOWER(COALESCE(p.description, '')) LIKE LOWER(CONCAT('%', :keyword, '%'))
-            OR LOWER(COALESCE(p.spec, '')) LIKE LOWER(CONCAT('%', :keyword, '%'))
-        )
+        SELECT new com.crsp.mall.entity.ProductCard(p.id, p.title, p.price, p.originalPrice, p.soldCount,
+            p.icon, p.bgColor, p.tag, p.firstImageUrl, p.firstVideoUrl, p.updatedAt)
+        FROM ProductEntity p WHERE p.active = true ORDER BY p.id
         """)
-    List<ProductEntity> searchActiveProducts(@Param("keyword") String keyword);
+    List<ProductCard> findActiveCards();
+
+    /**
+     * 上架商品的可搜索文本，用于重建搜索索引
+     */
+    @Query("SELECT p.id AS id, p.title AS title, p.tag AS tag, p.spec AS spec, p.description AS description "
+            + "FROM ProductEntity p WHERE p.active = true")
+    List<SearchText> findActiveSearchTexts();
+
+    interface SearchText {
+        Long getId();
+        String getTitle();
+        String getTag();
+        String getSpec();
+        String getDescription();
+    }
+
+    /**
+     * 尚未计算媒体派生列的旧数据
+     */
+    List<ProductEntity> findByMediaCountIsNull();
+
+    /**
+     * 尚未迁移已售数量的旧数据
+     */
+    List<ProductEntity> findBySoldCountIsNull();
+
+    /**
+     * 原子累加已售数量
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProductEntity p SET p.soldCount = COALESCE(p.soldCount, 0) + :delta WHERE p.id = :id")
+    int incrementSoldCount(@Param("id") Long id, @Param("delta") long delta);
+
+    @Query("SELECT p.id AS id, p.soldCount AS soldCount FROM ProductEntity p WHERE p.id IN :ids")
+    List<SoldCount> findSoldCounts(@Param("ids") Collection<Long> ids);
+
+    interface SoldCount {
+        Long getId();
+        Long getSoldCount();
+    }
+
+    /**
+     * 有规格JSON但尚未生成规格（SKU）行的商品
+     */
+    @Query("SELECT p FROM ProductEntity p WHERE p.specifications IS NOT NULL AND p.specifications <> '' "
+            + "AND NOT EXISTS (SELECT 1 FROM ProductSkuEntity s WHERE s.productId = p.id)")
+    List<ProductEntity> findWithoutSkus();
+
+    /**
+     * 条件扣减库存：商品在售且库存充足时扣减（库存为空表示不限量，只校验在售），返回更新行数
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProductEntity p SET p.stock = p.stock - :quantity, p.updatedAt = :updatedAt " +
+           "WHERE p.id = :id AND p.active = true AND (p.stock IS NULL OR p.stock >= :quantity)")
+    int decrementStock(@Param("id") Long id, @Param("quantity") int quantity,
+                       @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * 归还库存（撤销扣减、取消订单），不限库存的商品不变
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProductEntity p SET p.stock = p.stock + :quantity, p.updatedAt = :updatedAt " +
+           "WHERE p.id = :id AND p.stock IS NOT NULL")
+    int incrementStock(@Param("id") Long id, @Param("quantity") int quantity,
+                       @Param("updatedAt") LocalDateTime updatedAt);
+
+    @Query("SELECT p.id FROM ProductEntity p WHERE p.flashSale = true")
+    List<Long> findFlashSaleIds();
+
+    @Query("SELECT p.stock FROM ProductEntity p WHERE p.id = :id")
+    Integer findStock(@Param("id") Long id);
+
+    /**
+     * 按增量扣减库存（增量为负时增加），不低于0，用于秒杀库存写回
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProductEntity p SET p.stock = CASE WHEN p.stock > :delta THEN p.stock - :delta ELSE 0 END " +
+           "WHERE p.id = :id AND p.stock IS NOT NULL")
+    int deductStock(@Param("id") Long id, @Param("delta") int delta);
 }
@@ -0,0 +1,55 @@
+package com.crsp.mall.repository;
+
+import com.crsp.mall.entity.ProductSkuEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 商品规格（SKU）数据访问接口
+ */
+@Repository
+public interface ProductSkuRepository extends JpaRepository<ProductSkuEntity, Long> {
+
+    List<ProductSkuEntity> findByProductIdOrderBySortOrderAsc(Long productId);
+
+    /**
+     * 条件扣减规格库存：库存充足时扣减（库存为空表示不限量），返回更新行数
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProductSkuEntity s SET s.stock = s.stock - :quantity "
+            + "WHERE s.id = :id AND (s.stock IS NULL OR s.stock >= :quantity)")
+    int decrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    /**
+     * 归还规格库存（撤销扣减、取消订单），不限量的规格不变
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProductSkuEntity s SET s.stock = s.stock + :quantity WHERE s.id = :id AND s.stock IS NOT NULL")
+    int incrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    /**
+     * 规格当前库存（只读取ID、商品ID和库存）
+     */
+    @Query("SELECT s.id AS id, s.productId AS productId, s.stock AS stock FROM ProductSkuEntity s WHERE s.id IN :ids")
+    List<SkuStock> findStocks(@Param("ids") Collection<Long> ids);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ProductSkuEntity s WHERE s.productId = :productId")
+    int deleteByProductId(@Param("productId") Long productId);
+
+    interface SkuStock {
+        Long getId();
+        Long getProductId();
+        Integer getStock();
+    }
+}
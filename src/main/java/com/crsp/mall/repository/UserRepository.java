@@ -2,6 +2,8 @@ package com.crsp.mall.repository;
 
 import com.crsp.mall.entity.UserEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -24,4 +26,13 @@ public interface UserRepository extends JpaRepository<UserEntity, Long> {
     long countByActive(Boolean active);
     
     boolean existsByToken(String token);
+
+    /**
+     * 一次查询读取用户及其收藏数、购物车商品数
+     */
+    @Query("SELECT u AS user, "
+            + "(SELECT COUNT(f) FROM FavoriteEntity f WHERE f.userId = u.id) AS favoriteCount, "
+            + "(SELECT COUNT(c) FROM CartItemEntity c WHERE c.userId = u.id) AS cartCount "
+            + "FROM UserEntity u WHERE u.id = :id")
+    Optional<UserWithCounts> findWithCountsById(@Param("id") Long id);
 }
@@ -0,0 +1,12 @@
+package com.crsp.mall.repository;
+
+import com.crsp.mall.entity.UserEntity;
+
+/**
+ * 用户及其收藏数、购物车商品数
+ */
+public interface UserWithCounts {
+    UserEntity getUser();
+    long getFavoriteCount();
+    long getCartCount();
+}
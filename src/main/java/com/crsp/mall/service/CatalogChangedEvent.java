@@ -0,0 +1,9 @@
+package com.crsp.mall.service;
+
+/**
+ * 商品目录变更事件 - 在事务提交后发布
+ * @param version 变更后的目录版本
+ * @param productId 变更的商品ID，为null表示整体刷新
+ * @param listingChanged 列表可见内容（上下架、卡片字段）是否变化；为false时只影响该商品的详情
+ */
+public record CatalogChangedEvent(long version, Long productId, boolean listingChanged) {}
@@ -0,0 +1,178 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductCard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 上架商品目录快照 - 不可变对象，商品变更时整体替换为新版本
+ * 只保存列表卡片（ProductCard），不持有媒体和规格JSON
+ */
+public final class CatalogSnapshot {
+
+    private final long version;
+
+    // 快照生成时间（毫秒），作为列表接口的Last-Modified
+    private final long createdAt;
+
+    private final List<ProductCard> products;
+
+    private final Map<Long, ProductCard> productsById;
+
+    // 按销量排序的商品列表，首次访问时构建（同一快照内不变）
+    private volatile List<ProductCard> productsBySales;
+
+    /**
+     * 销量排序：已售数量降序，相同时按ID升序
+     */
+    public static final Comparator<ProductCard> SALES_ORDER = Comparator
+            .comparingLong(ProductCard::soldCount).reversed()
+            .thenComparing(ProductCard::id);
+
+    private CatalogSnapshot(long version, List<ProductCard> sortedProducts) {
+        this.version = version;
+        this.createdAt = System.currentTimeMillis();
+        this.products = Collections.unmodifiableList(sortedProducts);
+        Map<Long, ProductCard> index = new HashMap<>(sortedProducts.size() * 2);
+        for (ProductCard product : sortedProducts) {
+            index.put(product.id(), product);
+        }
+        this.productsById = index;
+    }
+
+    /**
+     * 根据上架商品卡片构建快照（按ID升序）
+     */
+    public static CatalogSnapshot of(long version, Collection<ProductCard> products) {
+        List<ProductCard> sorted = new ArrayList<>(products);
+        sorted.sort(Comparator.comparing(ProductCard::id));
+        return new CatalogSnapshot(version, sorted);
+    }
+
+    /**
+     * 返回替换（或新增）指定商品后的新快照
+     */
+    public CatalogSnapshot withProduct(long newVersion, ProductCard product) {
+        List<ProductCard> updated = new ArrayList<>(products.size() + 1);
+        boolean placed = false;
+        for (ProductCard existing : products) {
+            if (!placed && existing.id() >= product.id()) {
+                updated.add(product);
+                placed = true;
+                if (existing.id().equals(product.id())) {
+                    continue;
+                }
+            }
+            updated.add(existing);
+        }
+        if (!placed) {
+            updated.add(product);
+        }
+        return new CatalogSnapshot(newVersion, updated);
+    }
+
+    /**
+     * 返回移除指定商品后的新快照
+     */
+    public CatalogSnapshot withoutProduct(long newVersion, Long productId) {
+        List<ProductCard> updated = new ArrayList<>(products.size());
+        for (ProductCard existing : products) {
+            if (!existing.id().equals(productId)) {
+                updated.add(existing);
+            }
+        }
+        return new CatalogSnapshot(newVersion, updated);
+    }
+
+    /**
+     * 返回更新指定商品已售数量后的新快照
+     * @param soldCounts 商品ID -> 最新已售数量
+     */
+    public CatalogSnapshot withSoldCounts(long newVersion, Map<Long, Long> soldCounts) {
+        List<ProductCard> updated = new ArrayList<>(products.size());
+        for (ProductCard existing : products) {
+            Long soldCount = soldCounts.get(existing.id());
+            updated.add(soldCount != null ? existing.withSoldCount(soldCount) : existing);
+        }
+        return new CatalogSnapshot(newVersion, updated);
+    }
+
+    public long getVersion() { return version; }
+
+    public long getCreatedAt() { return createdAt; }
+
+    /**
+     * 快照的强ETag：版本号加生成时间，应用重启后版本号重新计数也不会与旧值冲突
+     */
+    public String getETag() {
+        return "\"c" + Long.toString(version, 36) + "-" + Long.toString(createdAt, 36) + "\"";
+    }
+
+    /**
+     * 全部上架商品（按ID升序，只读）
+     */
+    public List<ProductCard> getProducts() { return products; }
+
+    /**
+     * 按销量降序排列的全部上架商品（只读）
+     */
+    public List<ProductCard> getProductsBySales() {
+        List<ProductCard> sorted = productsBySales;
+        if (sorted == null) {
+            List<ProductCard> copy = new ArrayList<>(products);
+            copy.sort(SALES_ORDER);
+            sorted = Collections.unmodifiableList(copy);
+            productsBySales = sorted;
+        }
+        return sorted;
+    }
+
+    public ProductCard getProduct(Long id) {
+        return id == null ? null : productsById.get(id);
+    }
+
+    public int size() { return products.size(); }
+
+    /**
+     * 返回第一个ID大于指定ID的商品下标（二分查找），用于按ID游标分页
+     */
+    public int indexAfter(long productId) {
+        int low = 0;
+        int high = products.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (products.get(mid).id() <= productId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 返回销量排序中第一个排在（soldCount, productId）之后的商品下标，用于按销量游标分页
+     */
+    public int indexAfterBySales(long soldCount, long productId) {
+        List<ProductCard> sorted = getProductsBySales();
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            ProductCard card = sorted.get(mid);
+            boolean after = card.soldCount() != soldCount ? card.soldCount() < soldCount : card.id() > productId;
+            if (after) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,11 @@
+package com.crsp.mall.service;
+
+/**
+ * 下单队列已满，客户端应稍后重试
+ */
+public class CheckoutBusyException extends RuntimeException {
+
+    public CheckoutBusyException(String message) {
+        super(message);
+    }
+}
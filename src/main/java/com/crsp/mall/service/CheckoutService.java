@@ -0,0 +1,383 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.CartItemEntity;
+import com.crsp.mall.entity.OrderEntity;
+import com.crsp.mall.entity.OrderItemEntity;
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.entity.UserPrincipal;
+import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.support.BoundedCache;
+import com.crsp.mall.support.GroupCommitExecutor;
+import com.crsp.mall.support.TransactionHooks;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 下单服务 - 校验购物车、扣减库存并创建订单
+ * 携带幂等键的请求只执行一次：重复提交直接返回首次创建的订单，并发的重复请求等待首次执行的结果。
+ * 开启下单队列时，下单请求进入有界队列，由单个写线程分组提交（一批订单一个事务），队列满时拒绝。
+ */
+@Service
+public class CheckoutService {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private SalesCounter salesCounter;
+
+    @Autowired
+    private OrderExpiryService orderExpiryService;
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    // 等待下单结果（队列中的下单或同一幂等键的首个请求）的最长时间
+    private static final long INTAKE_WAIT_SECONDS = 30;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // 下单队列（未开启时为null，请求线程直接执行事务）
+    private final GroupCommitExecutor intake;
+
+    // 幂等键 -> 已成功的下单结果
+    private final BoundedCache<String, CheckoutResult> results;
+
+    // 幂等键 -> 正在执行的下单
+    private final Map<String, CompletableFuture<CheckoutResult>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * 收货信息（已由调用方校验格式）
+     */
+    public record CheckoutRequest(String userName, String userPhone, String shippingAddress, String remark) {}
+
+    /**
+     * 下单结果：成功时包含订单号，失败时包含错误信息；replayed表示幂等重放
+     */
+    public record CheckoutResult(String orderNo, double totalAmount, int productCount,
+                                 String error, boolean priceChanged, boolean replayed) {
+
+        static CheckoutResult success(OrderEntity order) {
+            int count = order.getProductCount() != null ? order.getProductCount() : 0;
+            return new CheckoutResult(order.getOrderNo(), order.getTotalAmount(), count, null, false, false);
+        }
+
+        static CheckoutResult failure(String error) {
+            return new CheckoutResult(null, 0, 0, error, false, false);
+        }
+
+        static CheckoutResult priceChangedFailure(String error) {
+            return new CheckoutResult(null, 0, 0, error, true, false);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        CheckoutResult asReplay() {
+            return new CheckoutResult(orderNo, totalAmount, productCount, error, priceChanged, true);
+        }
+    }
+
+    public CheckoutService(PlatformTransactionManager transactionManager,
+                           @Value("${app.checkout.idempotency.max-entries:10000}") int maxEntries,
+                           @Value("${app.checkout.idempotency.ttl-seconds:86400}") long ttlSeconds,
+                           @Value("${app.checkout.intake.enabled:false}") boolean intakeEnabled,
+                           @Value("${app.checkout.intake.queue-capacity:1000}") int queueCapacity,
+                           @Value("${app.checkout.intake.max-batch-size:64}") int maxBatchSize) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.results = new BoundedCache<>(maxEntries, Duration.ofSeconds(ttlSeconds));
+        this.intake = intakeEnabled
+                ? new GroupCommitExecutor("checkout-intake", transactionTemplate, queueCapacity, maxBatchSize)
+                : null;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (intake != null) {
+            intake.shutdown(TimeUnit.SECONDS.toMillis(INTAKE_WAIT_SECONDS));
+        }
+    }
+
+    /**
+     * 提交订单
+     * @param idempotencyKey 客户端幂等键（可为空），按用户隔离
+     */
+    public CheckoutResult checkout(UserPrincipal user, CheckoutRequest request, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return placeOrder(user, request, null);
+        }
+        String key = user.id() + ":" + idempotencyKey;
+        CheckoutResult cached = results.get(key);
+        if (cached != null) {
+            return cached.asReplay();
+        }
+        CompletableFuture<CheckoutResult> own = new CompletableFuture<>();
+        CompletableFuture<CheckoutResult> running = inflight.putIfAbsent(key, own);
+        if (running != null) {
+            CheckoutResult result = awaitResult(running);
+            return result.isSuccess() ? result.asReplay() : result;
+        }
+        try {
+            CheckoutResult result = placeOrder(user, request, key);
+            if (result.isSuccess()) {
+                results.put(key, result);
+            }
+            own.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // 任何异常（包括Error）都要完成，否则等待同一幂等键的请求不会返回
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, own);
+        }
+    }
+
+    /**
+     * 提交订单
+     * @throws CheckoutBusyException 下单队列已满
+     */
+    private CheckoutResult placeOrder(UserPrincipal user, CheckoutRequest request, String key) {
+        try {
+            if (intake == null) {
+                return transactionTemplate.execute(status -> doPlaceOrder(user, request, key));
+            }
+            return awaitResult(submit(user, request, key));
+        } catch (DataIntegrityViolationException e) {
+            // 幂等键唯一约束冲突：其他实例已用同一幂等键创建订单
+            if (key != null) {
+                Optional<OrderEntity> existing = orderRepository.findByIdempotencyKey(key);
+                if (existing.isPresent()) {
+                    return CheckoutResult.success(existing.get()).asReplay();
+                }
+            }
+            throw e;
+        }
+    }
+
+    private CompletableFuture<CheckoutResult> submit(UserPrincipal user, CheckoutRequest request, String key) {
+        try {
+            return intake.submit(() -> doPlaceOrder(user, request, key));
+        } catch (RejectedExecutionException e) {
+            throw new CheckoutBusyException("下单队列已满");
+        }
+    }
+
+    /**
+     * 在当前事务中下单；库存扣减失败时不留下部分扣减，同一事务中的其他订单不受影响
+     */
+    private CheckoutResult doPlaceOrder(UserPrincipal user, CheckoutRequest request, String key) {
+        // 本地缓存过期或应用重启后，以订单表中的幂等键为准
+        if (key != null) {
+            Optional<OrderEntity> existing = orderRepository.findByIdempotencyKey(key);
+            if (existing.isPresent()) {
+                return CheckoutResult.success(existing.get()).asReplay();
+            }
+        }
+
+        // 获取选中的购物车商品
+        List<CartItemEntity> selectedItems = userService.getSelectedCartItems(user.id());
+        if (selectedItems.isEmpty()) {
+            return CheckoutResult.failure("请选择要结算的商品");
+        }
+
+        // 校验在售状态和规格并计算总价（使用目录快照和规格缓存中的当前价格，库存在扣减时校验）
+        double totalAmount = 0;
+        int totalCount = 0;
+        StringBuilder priceChanges = new StringBuilder();
+        Map<Long, Integer> quantities = new HashMap<>();
+        Map<ProductSkus.Sku, Integer> skuQuantities = new HashMap<>();
+        List<OrderItemEntity> orderItems = new ArrayList<>(selectedItems.size());
+        for (CartItemEntity item : selectedItems) {
+            Optional<ProductCard> cardOpt = productDbService.getProductCard(item.getProductId());
+            if (cardOpt.isEmpty()) {
+                return CheckoutResult.failure("商品 \"" + item.getProductTitle() + "\" 已下架");
+            }
+            ProductCard card = cardOpt.get();
+            double price = card.price();
+            ProductSkus skus = productDbService.getProductSkus(item.getProductId());
+            Long skuId = null;
+            if (!skus.isEmpty()) {
+                int index = skus.indexOf(item.getSpecName());
+                if (index < 0) {
+                    return CheckoutResult.failure("商品 \"" + item.getProductTitle() + "\" 的规格 \""
+                            + item.getSpecName() + "\" 已失效，请重新选择");
+                }
+                ProductSkus.Sku sku = skus.get(index);
+                if (sku.price() != null) {
+                    price = sku.price();
+                }
+                skuQuantities.merge(sku, item.getQuantity(), Integer::sum);
+                skuId = sku.id();
+            }
+            // 检测价格变化，若价格已变需要用户重新确认
+            if (item.getProductPrice() != null && Math.abs(price - item.getProductPrice()) > 0.01) {
+                priceChanges.append(String.format("「%s」 ¥%.2f → ¥%.2f；",
+                    item.getProductTitle(), item.getProductPrice(), price));
+                // 同步更新购物车中的价格快照
+                item.setProductPrice(price);
+                userService.saveCartItem(item);
+            }
+            totalAmount += price * item.getQuantity();
+            totalCount += item.getQuantity();
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            orderItems.add(orderItem(item, card, skuId, price));
+        }
+
+        // 若有价格变化，拒绝下单并告知用户
+        if (priceChanges.length() > 0) {
+            return CheckoutResult.priceChangedFailure("以下商品价格已变动，请确认后重新提交：" + priceChanges);
+        }
+
+        // 扣减规格和商品库存（每行一条条件更新语句，库存不足时不扣减且归还已扣减的其他商品，必须在创建订单前完成）
+        Optional<Long> failedProductId = productDbService.decrementStock(quantities, skuQuantities);
+        if (failedProductId.isPresent()) {
+            return CheckoutResult.failure(stockError(failedProductId.get(), selectedItems));
+        }
+
+        // 创建订单（库存已扣减）
+        OrderEntity order = new OrderEntity();
+        order.setUserId(user.id());
+        order.setUserName(request.userName());
+        order.setUserPhone(request.userPhone());
+        order.setShippingAddress(request.shippingAddress());
+        order.setTotalAmount(totalAmount);
+        order.setProductCount(totalCount);
+        order.setRemark(request.remark());
+        order.setStatus("pending");
+        order.setIdempotencyKey(key);
+        order.setReservedStock(quantities);
+        Map<Long, Integer> reservedSkus = new HashMap<>();
+        skuQuantities.forEach((sku, quantity) -> reservedSkus.put(sku.id(), quantity));
+        order.setReservedSkuStock(reservedSkus);
+
+        OrderEntity savedOrder = orderService.saveOrder(order, orderItems);
+        // 超时未付款自动取消（事务提交后登记）
+        TransactionHooks.afterCommit(() -> orderExpiryService.track(savedOrder.getId(), savedOrder.getCreatedAt()));
+
+        // 累加商品销量（事务提交后计入，定期批量落库）
+        for (CartItemEntity item : selectedItems) {
+            salesCounter.record(item.getProductId(), item.getQuantity());
+        }
+
+        // 清除已下单的购物车商品
+        userService.removeCartItems(selectedItems);
+        TransactionHooks.afterCommit(() -> recommendationService.invalidate(user.id()));
+
+        return CheckoutResult.success(savedOrder);
+    }
+
+    /**
+     * 订单明细：记录下单时的商品标题、规格和成交单价
+     */
+    private static OrderItemEntity orderItem(CartItemEntity item, ProductCard card, Long skuId, double price) {
+        OrderItemEntity orderItem = new OrderItemEntity();
+        orderItem.setProductId(item.getProductId());
+        orderItem.setSkuId(skuId);
+        orderItem.setProductTitle(card.title());
+        orderItem.setProductImage(item.getProductImage());
+        orderItem.setSpecName(item.getSpecName());
+        orderItem.setQuantity(item.getQuantity());
+        orderItem.setUnitPrice(price);
+        return orderItem;
+    }
+
+    /**
+     * 库存扣减失败时的提示：只在失败时查询商品和规格当前状态
+     */
+    private String stockError(Long productId, List<CartItemEntity> items) {
+        String title = items.stream()
+                .filter(item -> productId.equals(item.getProductId()))
+                .map(CartItemEntity::getProductTitle)
+                .findFirst().orElse("");
+        Optional<ProductEntity> product = productDbService.getProductById(productId);
+        if (product.isEmpty() || !Boolean.TRUE.equals(product.get().getActive())) {
+            return "商品 \"" + title + "\" 已下架";
+        }
+        String skuError = skuStockError(productId, title, items);
+        if (skuError != null) {
+            return skuError;
+        }
+        Integer stock = productDbService.getAvailableStock(product.get());
+        if (stock != null && stock <= 0) {
+            return "商品 \"" + title + "\" 已售罄";
+        }
+        return "商品 \"" + title + "\" 库存不足，当前库存: " + stock;
+    }
+
+    private String skuStockError(Long productId, String title, List<CartItemEntity> items) {
+        ProductSkus skus = productDbService.getProductSkus(productId);
+        if (skus.isEmpty()) {
+            return null;
+        }
+        Map<Long, Integer> requested = new HashMap<>();
+        Map<Long, String> names = new HashMap<>();
+        for (CartItemEntity item : items) {
+            int index = productId.equals(item.getProductId()) ? skus.indexOf(item.getSpecName()) : -1;
+            if (index >= 0) {
+                requested.merge(skus.get(index).id(), item.getQuantity(), Integer::sum);
+                names.put(skus.get(index).id(), item.getSpecName());
+            }
+        }
+        Map<Long, Integer> stocks = productDbService.getSkuStocks(requested.keySet());
+        for (Map.Entry<Long, Integer> entry : requested.entrySet()) {
+            Integer stock = stocks.get(entry.getKey());
+            if (stock != null && stock < entry.getValue()) {
+                String label = "商品 \"" + title + "\" 规格 \"" + names.get(entry.getKey()) + "\"";
+                return stock <= 0 ? label + " 已售罄" : label + " 库存不足，当前库存: " + stock;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 等待下单队列或同一幂等键的首个请求返回结果（最长INTAKE_WAIT_SECONDS）
+     */
+    private static CheckoutResult awaitResult(CompletableFuture<CheckoutResult> future) {
+        try {
+            return future.get(INTAKE_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待下单结果被中断", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("等待下单结果超时", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw new CheckoutBusyException("下单队列已关闭");
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.crsp.mall.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 商品共现模型 - 基于同一用户浏览/加购的商品计算商品间相似度
+ * 增量维护：每条新的用户行为只更新与该用户近期商品的共现计数，并标记受影响商品待重算近邻。
+ * 相似度为加权余弦：cooc(i,j) / sqrt(w(i) * w(j))。非线程安全，由调用方串行访问。
+ * 内存有界：只保留最近活跃的用户，每个商品只保留共现权重最高的一批商品对。
+ */
+public class CoOccurrenceModel {
+
+    // 每个用户参与共现计算的最近商品数，避免重度用户产生过多商品对
+    static final int MAX_ITEMS_PER_USER = 50;
+
+    // 保留近期商品的用户数，超出时淘汰最久未活跃的用户
+    static final int MAX_USERS = 20_000;
+
+    // 每个商品保留的共现商品数，超出时裁掉权重较低的一半
+    static final int MAX_PAIRS_PER_ITEM = 200;
+
+    // 持久化格式版本
+    private static final int FORMAT_VERSION = 1;
+
+    static final double VIEW_WEIGHT = 1.0;
+    static final double CART_WEIGHT = 2.0;
+
+    private final int topK;
+
+    private final int maxPairsPerItem;
+
+    private final Map<Long, LinkedHashSet<Long>> viewedByUser;
+
+    private final Map<Long, LinkedHashSet<Long>> cartedByUser;
+
+    private final Map<Long, Map<Long, Double>> cooccurrence = new HashMap<>();
+
+    private final Map<Long, Double> itemWeights = new HashMap<>();
+
+    private final Set<Long> dirty = new HashSet<>();
+
+    public CoOccurrenceModel(int topK) {
+        this(topK, MAX_USERS, MAX_PAIRS_PER_ITEM);
+    }
+
+    CoOccurrenceModel(int topK, int maxUsers, int maxPairsPerItem) {
+        this.topK = topK;
+        this.maxPairsPerItem = maxPairsPerItem;
+        this.viewedByUser = recentUsers(maxUsers);
+        this.cartedByUser = recentUsers(maxUsers);
+    }
+
+    /**
+     * 记录浏览行为（同一用户对同一商品只计一次）
+     */
+    public void addView(Long userId, Long productId) {
+        record(viewedByUser, userId, productId, VIEW_WEIGHT);
+    }
+
+    /**
+     * 记录加购行为，加购商品之间的共现权重高于浏览
+     */
+    public void addCart(Long userId, Long productId) {
+        record(cartedByUser, userId, productId, CART_WEIGHT);
+    }
+
+    /**
+     * 重算自上次调用以来受影响商品的近邻（按相似度降序、商品ID升序，最多topK个）
+     * @return 商品ID -> 近邻商品ID
+     */
+    public Map<Long, long[]> computeDirtyNeighbors() {
+        Map<Long, long[]> result = new HashMap<>(dirty.size() * 2);
+        for (Long productId : dirty) {
+            result.put(productId, neighborsOf(productId));
+        }
+        dirty.clear();
+        return result;
+    }
+
+    /**
+     * 写出商品权重和共现计数（用户近期商品不持久化，重启后只丢失跨重启的共现）
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(itemWeights.size());
+        for (Map.Entry<Long, Double> entry : itemWeights.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+        out.writeInt(cooccurrence.size());
+        for (Map.Entry<Long, Map<Long, Double>> entry : cooccurrence.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Map.Entry<Long, Double> pair : entry.getValue().entrySet()) {
+                out.writeLong(pair.getKey());
+                out.writeDouble(pair.getValue());
+            }
+        }
+    }
+
+    /**
+     * 读取writeTo写出的数据替换当前计数，所有商品标记为待重算近邻
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("不支持的共现模型格式版本: " + version);
+        }
+        Map<Long, Double> weights = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            weights.put(in.readLong(), in.readDouble());
+        }
+        Map<Long, Map<Long, Double>> pairs = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Long productId = in.readLong();
+            int size = in.readInt();
+            Map<Long, Double> counts = new HashMap<>(size * 2);
+            for (int j = 0; j < size; j++) {
+                counts.put(in.readLong(), in.readDouble());
+            }
+            pairs.put(productId, counts);
+        }
+        itemWeights.clear();
+        itemWeights.putAll(weights);
+        cooccurrence.clear();
+        cooccurrence.putAll(pairs);
+        dirty.clear();
+        dirty.addAll(itemWeights.keySet());
+    }
+
+    private static Map<Long, LinkedHashSet<Long>> recentUsers(int maxUsers) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, LinkedHashSet<Long>> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    private void record(Map<Long, LinkedHashSet<Long>> itemsByUser, Long userId, Long productId, double weight) {
+        LinkedHashSet<Long> items = itemsByUser.computeIfAbsent(userId, k -> new LinkedHashSet<>());
+        if (!items.add(productId)) {
+            return;
+        }
+        itemWeights.merge(productId, weight, Double::sum);
+        dirty.add(productId);
+        for (Long other : items) {
+            if (!other.equals(productId)) {
+                addPair(productId, other, weight);
+                addPair(other, productId, weight);
+                dirty.add(other);
+            }
+        }
+        if (items.size() > MAX_ITEMS_PER_USER) {
+            Iterator<Long> oldest = items.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void addPair(Long productId, Long other, double weight) {
+        Map<Long, Double> counts = cooccurrence.computeIfAbsent(productId, k -> new HashMap<>());
+        counts.merge(other, weight, Double::sum);
+        if (counts.size() > maxPairsPerItem) {
+            prune(counts, other);
+        }
+    }
+
+    /**
+     * 裁掉权重较低的一半商品对（保留刚更新的商品对），长尾的偶发共现不会进入近邻
+     */
+    private void prune(Map<Long, Double> counts, Long keep) {
+        List<Map.Entry<Long, Double>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        int remove = counts.size() - maxPairsPerItem / 2;
+        for (int i = 0, removed = 0; i < entries.size() && removed < remove; i++) {
+            Long key = entries.get(i).getKey();
+            if (!key.equals(keep)) {
+                counts.remove(key);
+                removed++;
+            }
+        }
+    }
+
+    private long[] neighborsOf(Long productId) {
+        Map<Long, Double> counts = cooccurrence.get(productId);
+        if (counts == null || counts.isEmpty()) {
+            return new long[0];
+        }
+        double weight = itemWeights.getOrDefault(productId, 1.0);
+        List<Map.Entry<Long, Double>> scored = new ArrayList<>(counts.size());
+        for (Map.Entry<Long, Double> entry : counts.entrySet()) {
+            double otherWeight = itemWeights.getOrDefault(entry.getKey(), 1.0);
+            scored.add(Map.entry(entry.getKey(), entry.getValue() / Math.sqrt(weight * otherWeight)));
+        }
+        scored.sort((a, b) -> {
+            int byScore = Double.compare(b.getValue(), a.getValue());
+            return byScore != 0 ? byScore : Long.compare(a.getKey(), b.getKey());
+        });
+        int size = Math.min(topK, scored.size());
+        long[] neighbors = new long[size];
+        for (int i = 0; i < size; i++) {
+            neighbors[i] = scored.get(i).getKey();
+        }
+        return neighbors;
+    }
+}
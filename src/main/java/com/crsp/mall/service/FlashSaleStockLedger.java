@@ -0,0 +1,425 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.repository.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀库存台账 - 开启秒杀库存模式的商品在内存中预占库存（CAS），定期将扣减量批量写回数据库
+ * <p>
+ * 预占成功后先将扣减写入日志文件，写回数据库后删除对应日志段。日志在事务提交前落盘（分组提交）：
+ * 预占时只写入不落盘，每个事务提交前确认自己的记录已落盘，并发提交的事务共用一次force。
+ * 启动时重放未删除的日志段，从数据库库存中扣除。日志只记录预占不记录回滚释放，
+ * 崩溃恢复时库存只会偏少（少卖），不会超卖。
+ * 计数器只在本实例内存中，多实例部署时各实例分别按数据库库存预占，会超卖，只能单实例使用。
+ */
+@Service
+public class FlashSaleStockLedger {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleStockLedger.class);
+
+    private static final String SEGMENT_PREFIX = "stock-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    // 计数器已关闭（商品被修改或退出秒杀模式），预占方需重新加载
+    private static final long CLOSED = -1;
+
+    /**
+     * 预占结果
+     */
+    public enum Reservation {
+        GRANTED,
+        REJECTED,
+        // 非秒杀模式或不限库存，由数据库扣减
+        NOT_MANAGED
+    }
+
+    private static final class Counter {
+        final AtomicLong available;
+        // 上次写回数据库时的可用库存
+        long flushed;
+
+        Counter(long stock) {
+            this.available = new AtomicLong(stock);
+            this.flushed = stock;
+        }
+    }
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final Path journalDir;
+
+    private final boolean journalSync;
+
+    // 开启秒杀库存模式的商品ID
+    private final Set<Long> managedIds = ConcurrentHashMap.newKeySet();
+
+    // 已加载的库存计数器，首次预占时从数据库加载；加载、关闭和写回在this上同步
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Object journalLock = new Object();
+
+    // 当前日志段，首次预占时才创建日志目录和文件
+    private FileChannel journal;
+
+    private long segment;
+
+    // 已写入日志的记录数（journalLock内更新）和其中已落盘的记录数
+    private long appended;
+
+    private final AtomicLong synced = new AtomicLong();
+
+    // 落盘锁：同一时间只有一个线程执行force，等待的线程在其完成后通常无需再次force
+    private final Object syncLock = new Object();
+
+    // 已轮换但尚未写回数据库的日志段
+    private final List<Path> retiredSegments = new ArrayList<>();
+
+    public FlashSaleStockLedger(@Value("${app.flash-sale.journal-dir:/data/stock-journal}") String journalDir,
+                                @Value("${app.flash-sale.journal-sync:true}") boolean journalSync) {
+        this.journalDir = Paths.get(journalDir);
+        this.journalSync = journalSync;
+    }
+
+    /**
+     * 启动时重放上次运行未写回的日志（日志目录不存在时说明没有需要重放的日志）
+     */
+    @PostConstruct
+    public synchronized void recover() throws IOException {
+        List<Path> segments = Files.isDirectory(journalDir) ? listSegments() : List.of();
+        Map<Long, Integer> deductions = new HashMap<>();
+        for (Path path : segments) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2) {
+                    // 崩溃时写了一半的记录
+                    continue;
+                }
+                try {
+                    deductions.merge(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), Integer::sum);
+                } catch (NumberFormatException e) {
+                    log.warn("忽略无法解析的库存日志记录: {}", line);
+                }
+            }
+        }
+        deductions.forEach(productRepository::deductStock);
+        for (Path path : segments) {
+            Files.delete(path);
+        }
+        if (!deductions.isEmpty()) {
+            log.info("已重放秒杀库存日志: 商品{}个", deductions.size());
+        }
+        managedIds.addAll(productRepository.findFlashSaleIds());
+    }
+
+    /**
+     * 预占库存：写入日志，在当前事务提交前落盘（无事务时立即落盘），事务回滚时释放
+     */
+    public Reservation reserve(Long productId, int quantity) {
+        if (!managedIds.contains(productId)) {
+            return Reservation.NOT_MANAGED;
+        }
+        Counter counter;
+        while (true) {
+            counter = counter(productId);
+            if (counter == null) {
+                return Reservation.NOT_MANAGED;
+            }
+            long current = counter.available.get();
+            if (current == CLOSED) {
+                continue;
+            }
+            if (current < quantity) {
+                return Reservation.REJECTED;
+            }
+            if (counter.available.compareAndSet(current, current - quantity)) {
+                break;
+            }
+        }
+        Holdings holdings = currentHoldings();
+        try {
+            long journalSeq = append(productId, quantity);
+            if (holdings != null) {
+                holdings.journalSeq = journalSeq;
+            } else {
+                syncJournal(journalSeq);
+            }
+        } catch (IOException e) {
+            release(counter, quantity);
+            throw new UncheckedIOException("库存日志写入失败", e);
+        }
+        if (holdings != null) {
+            holdings.held.add(new Held(productId, counter, quantity));
+        }
+        return Reservation.GRANTED;
+    }
+
+    /**
+     * 撤销当前事务中已成功的预占（同一事务内部分商品扣减失败时调用），事务回滚时不再重复释放
+     */
+    public void cancel(Long productId, int quantity) {
+        Holdings holdings = currentHoldings();
+        if (holdings != null) {
+            for (int i = holdings.held.size() - 1; i >= 0; i--) {
+                Held held = holdings.held.get(i);
+                if (held.productId().equals(productId) && held.quantity() == quantity) {
+                    holdings.held.remove(i);
+                    release(held.counter(), quantity);
+                    return;
+                }
+            }
+        }
+        Counter counter = counters.get(productId);
+        if (counter != null) {
+            release(counter, quantity);
+        }
+    }
+
+    /**
+     * 归还已提交的预占（订单取消），计数器未加载时直接加回数据库库存
+     */
+    public synchronized void restore(Long productId, int quantity) {
+        Counter counter = counters.get(productId);
+        if (counter != null) {
+            release(counter, quantity);
+        } else {
+            productRepository.incrementStock(productId, quantity, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * 当前可用库存（含尚未写回的扣减），商品不受台账管理或尚未加载时为空
+     */
+    public Long getAvailable(Long productId) {
+        Counter counter = counters.get(productId);
+        if (counter == null) {
+            return null;
+        }
+        long available = counter.available.get();
+        return available == CLOSED ? null : available;
+    }
+
+    public boolean isManaged(Long productId) {
+        return managedIds.contains(productId);
+    }
+
+    /**
+     * 商品保存或删除后调用：写回并关闭计数器，下次预占时按最新库存重新加载
+     */
+    public synchronized void onProductChanged(Long productId, boolean flashSale) {
+        Counter counter = counters.remove(productId);
+        if (counter != null) {
+            long available = counter.available.getAndSet(CLOSED);
+            writeBack(productId, counter, available);
+        }
+        if (flashSale) {
+            managedIds.add(productId);
+        } else {
+            managedIds.remove(productId);
+        }
+    }
+
+    /**
+     * 将内存中的库存扣减写回数据库，成功后删除已覆盖的日志段
+     * @return 写回的商品数
+     */
+    @Scheduled(fixedDelayString = "${app.flash-sale.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized int flush() throws IOException {
+        // 先轮换日志段再读取计数器：轮换前写入的日志对应的扣减一定包含在本次写回中
+        synchronized (journalLock) {
+            if (journal == null) {
+                return 0;
+            }
+            // 轮换前将旧日志段落盘，等待落盘的事务不会再对已关闭的文件执行force
+            if (journalSync) {
+                journal.force(false);
+            }
+            journal.close();
+            synced.accumulateAndGet(appended, Math::max);
+            retiredSegments.add(segmentPath(segment));
+            journal = openSegment(++segment);
+        }
+        int written = 0;
+        for (Map.Entry<Long, Counter> entry : counters.entrySet()) {
+            long available = entry.getValue().available.get();
+            if (available != CLOSED && writeBack(entry.getKey(), entry.getValue(), available)) {
+                written++;
+            }
+        }
+        for (Path path : retiredSegments) {
+            Files.deleteIfExists(path);
+        }
+        retiredSegments.clear();
+        return written;
+    }
+
+    private Counter counter(Long productId) {
+        Counter counter = counters.get(productId);
+        if (counter != null) {
+            return counter;
+        }
+        synchronized (this) {
+            counter = counters.get(productId);
+            if (counter == null && managedIds.contains(productId)) {
+                Integer stock = productRepository.findStock(productId);
+                if (stock == null) {
+                    return null;
+                }
+                counter = new Counter(stock);
+                counters.put(productId, counter);
+            }
+            return counter;
+        }
+    }
+
+    private record Held(Long productId, Counter counter, int quantity) {}
+
+    /**
+     * 当前事务中的预占：提交前确认日志已落盘，事务未提交时全部释放
+     */
+    private final class Holdings implements TransactionSynchronization {
+        final List<Held> held = new ArrayList<>();
+
+        // 本事务写入的最后一条日志记录的序号
+        long journalSeq;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            try {
+                syncJournal(journalSeq);
+            } catch (IOException e) {
+                throw new UncheckedIOException("库存日志落盘失败", e);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(FlashSaleStockLedger.this);
+            if (status != STATUS_COMMITTED) {
+                for (Held h : held) {
+                    release(h.counter(), h.quantity());
+                }
+            }
+        }
+    }
+
+    private Holdings currentHoldings() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Holdings holdings = (Holdings) TransactionSynchronizationManager.getResource(this);
+        if (holdings == null) {
+            holdings = new Holdings();
+            TransactionSynchronizationManager.bindResource(this, holdings);
+            TransactionSynchronizationManager.registerSynchronization(holdings);
+        }
+        return holdings;
+    }
+
+    private static void release(Counter counter, int quantity) {
+        // 计数器已关闭时放弃释放，库存偏少但不会超卖
+        counter.available.getAndUpdate(current -> current == CLOSED ? CLOSED : current + quantity);
+    }
+
+    private boolean writeBack(Long productId, Counter counter, long available) {
+        long delta = counter.flushed - available;
+        if (delta == 0) {
+            return false;
+        }
+        productRepository.deductStock(productId, (int) delta);
+        counter.flushed = available;
+        return true;
+    }
+
+    /**
+     * 写入一条预占记录（不落盘）
+     * @return 记录序号
+     */
+    private long append(Long productId, int quantity) throws IOException {
+        ByteBuffer record = ByteBuffer.wrap((productId + " " + quantity + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (journalLock) {
+            if (journal == null) {
+                Files.createDirectories(journalDir);
+                journal = openSegment(++segment);
+            }
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+            return ++appended;
+        }
+    }
+
+    /**
+     * 确保序号不超过journalSeq的记录已落盘。落盘期间其他线程可继续写入，
+     * 一次force覆盖开始时已写入的全部记录，排队等待的事务随后直接返回
+     */
+    private void syncJournal(long journalSeq) throws IOException {
+        if (!journalSync || synced.get() >= journalSeq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced.get() >= journalSeq) {
+                return;
+            }
+            FileChannel channel;
+            long target;
+            synchronized (journalLock) {
+                channel = journal;
+                target = appended;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // 日志段已轮换，轮换时已落盘
+            }
+            synced.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalDir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return journalDir.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
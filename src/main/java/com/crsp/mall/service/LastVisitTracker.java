@@ -0,0 +1,87 @@
+package com.crsp.mall.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户最近访问时间 - 访问时只在内存中记录（每个用户保留最大时间），定期用一次批量UPDATE落库
+ * 页面访问不再逐次写用户行，也不会改动updatedAt。
+ */
+@Service
+public class LastVisitTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(LastVisitTracker.class);
+
+    // 只前进不后退：数据库中的时间更新时不覆盖
+    private static final String UPDATE_SQL =
+            "UPDATE users SET last_visit = ? WHERE id = ? AND (last_visit IS NULL OR last_visit < ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 用户ID -> 尚未落库的最近访问时间（毫秒）
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    public void record(Long userId) {
+        record(userId, System.currentTimeMillis());
+    }
+
+    public void record(Long userId, long visitedAtMillis) {
+        if (userId != null) {
+            pending.merge(userId, visitedAtMillis, Math::max);
+        }
+    }
+
+    /**
+     * 尚未落库的最近访问时间，没有时返回null
+     */
+    public LocalDateTime pendingLastVisit(Long userId) {
+        Long millis = pending.get(userId);
+        return millis != null ? LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()) : null;
+    }
+
+    /**
+     * 将记录的访问时间批量写入数据库
+     * @return 本次落库的用户数
+     */
+    @Scheduled(fixedDelayString = "${app.user.last-visit.flush-interval-ms:30000}")
+    @PreDestroy
+    public synchronized int flush() {
+        List<Object[]> batch = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, Long> entry : pending.entrySet()) {
+            // 只移除取出的值，期间有新的访问时保留到下次落库
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                Timestamp visitedAt = new Timestamp(entry.getValue());
+                batch.add(new Object[] {visitedAt, entry.getKey(), visitedAt});
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+        } catch (RuntimeException e) {
+            // 写入失败时放回，下次重试
+            for (Object[] row : batch) {
+                record((Long) row[1], ((Timestamp) row[0]).getTime());
+            }
+            log.warn("{}个用户的最近访问时间落库失败: {}", batch.size(), e.getMessage());
+            return 0;
+        }
+        return batch.size();
+    }
+}
@@ -0,0 +1,115 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.repository.PendingOrder;
+import com.crsp.mall.support.HashedTimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 待付款订单超时取消 - 订单到期时间保存在内存时间轮中，到期后分批取消并归还库存
+ * 启动时从订单表重建（只读取待付款订单的ID和下单时间），运行期间由下单成功后登记。
+ * 订单付款后不从时间轮中移除，到期时按订单状态跳过。
+ */
+@Service
+public class OrderExpiryService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderExpiryService.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private OrderService orderService;
+
+    private final Duration timeout;
+
+    private final HashedTimingWheel wheel;
+
+    public OrderExpiryService(@Value("${app.order.pending-timeout-minutes:30}") long timeoutMinutes,
+                              @Value("${app.order.expiry.tick-ms:1000}") long tickMillis,
+                              @Value("${app.order.expiry.wheel-size:4096}") int wheelSize) {
+        this.timeout = Duration.ofMinutes(timeoutMinutes);
+        this.wheel = new HashedTimingWheel(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    /**
+     * 登记待付款订单的超时取消（超时时间不大于0时不自动取消）
+     */
+    public void track(Long orderId, LocalDateTime createdAt) {
+        if (!timeout.isZero() && !timeout.isNegative()) {
+            wheel.schedule(orderId, toMillis(createdAt.plus(timeout)));
+        }
+    }
+
+    /**
+     * 启动后按ID分批读取全部待付款订单，重建时间轮
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long lastId = 0;
+        int tracked = 0;
+        List<PendingOrder> batch;
+        do {
+            batch = orderRepository.findPendingAfter(lastId, PageRequest.of(0, BATCH_SIZE));
+            for (PendingOrder order : batch) {
+                if (order.getCreatedAt() != null) {
+                    track(order.getId(), order.getCreatedAt());
+                    tracked++;
+                }
+                lastId = order.getId();
+            }
+        } while (batch.size() == BATCH_SIZE);
+        log.info("待付款订单超时定时器已重建: {}个", tracked);
+    }
+
+    /**
+     * 推进时间轮，分批取消到期的待付款订单；某批失败时下一次重试
+     * @return 取消的订单数
+     */
+    @Scheduled(fixedDelayString = "${app.order.expiry.tick-ms:1000}")
+    public int expire() {
+        long now = System.currentTimeMillis();
+        long[] due = wheel.advance(now);
+        int cancelled = 0;
+        for (int from = 0; from < due.length; from += BATCH_SIZE) {
+            List<Long> ids = new ArrayList<>(Math.min(BATCH_SIZE, due.length - from));
+            for (int i = from; i < Math.min(from + BATCH_SIZE, due.length); i++) {
+                ids.add(due[i]);
+            }
+            try {
+                cancelled += orderService.cancelUnpaidOrders(ids);
+            } catch (RuntimeException e) {
+                log.warn("超时订单取消失败，稍后重试{}个: {}", ids.size(), e.getMessage());
+                ids.forEach(id -> wheel.schedule(id, now));
+            }
+        }
+        if (cancelled > 0) {
+            log.info("已取消超时未付款订单{}个", cancelled);
+        }
+        return cancelled;
+    }
+
+    public int pendingTimers() {
+        return wheel.size();
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -1,12 +1,17 @@
 package com.crsp.mall.service;
 
 import com.crsp.mall.entity.OrderEntity;
+import com.crsp.mall.entity.OrderItemEntity;
+import com.crsp.mall.repository.OrderItemRepository;
 import com.crsp.mall.repository.OrderRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -21,6 +26,15 @@ public class OrderService {
     @Autowired
     private OrderRepository orderRepository;
 
+    @Autowired
+    private OrderItemRepository orderItemRepository;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private SalesCounter salesCounter;
+
     /**
      * 获取所有订单
      */
@@ -56,6 +70,25 @@ public class OrderService {
         return orderRepository.findByUserIdOrderByCreatedAtDesc(userId);
     }
 
+    /**
+     * 获取用户订单列表并填充订单明细（明细一次查询读取）
+     */
+    public List<OrderEntity> getOrdersWithItemsByUserId(Long userId) {
+        List<OrderEntity> orders = orderRepository.findByUserIdOrderByCreatedAtDesc(userId);
+        if (orders.isEmpty()) {
+            return orders;
+        }
+        Map<Long, List<OrderItemEntity>> itemsByOrder = new HashMap<>();
+        List<Long> orderIds = orders.stream().map(OrderEntity::getId).toList();
+        for (OrderItemEntity item : orderItemRepository.findByOrderIdInOrderByOrderIdAscIdAsc(orderIds)) {
+            itemsByOrder.computeIfAbsent(item.getOrderId(), id -> new ArrayList<>()).add(item);
+        }
+        for (OrderEntity order : orders) {
+            order.setItems(itemsByOrder.getOrDefault(order.getId(), List.of()));
+        }
+        return orders;
+    }
+
     /**
      * 保存订单
      */
@@ -63,6 +96,20 @@ public class OrderService {
         return orderRepository.save(order);
     }
 
+    /**
+     * 保存订单及其明细（明细在事务提交时批量插入）
+     */
+    @Transactional
+    public OrderEntity saveOrder(OrderEntity order, List<OrderItemEntity> items) {
+        OrderEntity saved = orderRepository.save(order);
+        for (OrderItemEntity item : items) {
+            item.setOrderId(saved.getId());
+        }
+        orderItemRepository.saveAll(items);
+        saved.setItems(items);
+        return saved;
+    }
+
     private static final Set<String> VALID_STATUSES = Set.of("pending", "paid", "shipped", "completed", "cancelled");
 
     // Valid state transitions: current status -> allowed next statuses
@@ -75,7 +122,7 @@ public class OrderService {
     );
 
     /**
-     * 更新订单状态（验证状态转换合法性）
+     * 更新订单状态（验证状态转换合法性），取消订单时归还下单扣减的库存并扣回销量
      */
     @Transactional
     public OrderEntity updateOrderStatus(Long id, String status) {
@@ -83,31 +130,56 @@ public class OrderService {
             return null;
         }
         Optional<OrderEntity> optionalOrder = orderRepository.findById(id);
-        if (optionalOrder.isPresent()) {
-            OrderEntity order = optionalOrder.get();
-            // Validate state transition
-            Set<String> allowedNextStatuses = VALID_TRANSITIONS.getOrDefault(order.getStatus(), Set.of());
-            if (!allowedNextStatuses.contains(status)) {
-                return null;
+        if (optionalOrder.isPresent() && transition(optionalOrder.get(), status)) {
+            return orderRepository.save(optionalOrder.get());
+        }
+        return null;
+    }
+
+    /**
+     * 取消超时未付款的订单（只处理仍为待付款状态的订单），归还库存并扣回销量
+     * @return 实际取消的订单数
+     */
+    @Transactional
+    public int cancelUnpaidOrders(Collection<Long> ids) {
+        int cancelled = 0;
+        for (OrderEntity order : orderRepository.findByIdInAndStatus(ids, "pending")) {
+            if (transition(order, "cancelled")) {
+                cancelled++;
             }
-            order.setStatus(status);
-            
-            // 更新相应的时间戳
-            switch (status) {
-                case "paid" -> order.setPaidAt(LocalDateTime.now());
-                case "shipped" -> order.setShippedAt(LocalDateTime.now());
-                case "completed" -> order.setCompletedAt(LocalDateTime.now());
+        }
+        return cancelled;
+    }
+
+    private boolean transition(OrderEntity order, String status) {
+        // Validate state transition
+        Set<String> allowedNextStatuses = VALID_TRANSITIONS.getOrDefault(order.getStatus(), Set.of());
+        if (!allowedNextStatuses.contains(status)) {
+            return false;
+        }
+        order.setStatus(status);
+
+        // 更新相应的时间戳
+        switch (status) {
+            case "paid" -> order.setPaidAt(LocalDateTime.now());
+            case "shipped" -> order.setShippedAt(LocalDateTime.now());
+            case "completed" -> order.setCompletedAt(LocalDateTime.now());
+            case "cancelled" -> {
+                Map<Long, Integer> reserved = order.getReservedStock();
+                productDbService.releaseStock(reserved, order.getReservedSkuStock());
+                // 下单时已计入销量，取消后扣回
+                reserved.forEach(salesCounter::reverse);
             }
-            
-            return orderRepository.save(order);
         }
-        return null;
+        return true;
     }
 
     /**
-     * 删除订单
+     * 删除订单及其明细
      */
+    @Transactional
     public void deleteOrder(Long id) {
+        orderItemRepository.deleteByOrderId(id);
         orderRepository.deleteById(id);
     }
 
@@ -1,12 +1,36 @@
 package com.crsp.mall.service;
 
+import com.crsp.mall.entity.ProductCard;
 import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.entity.ProductSkuEntity;
+import com.crsp.mall.entity.SpecItem;
 import com.crsp.mall.repository.ProductRepository;
+import com.crsp.mall.repository.ProductSkuRepository;
+import com.crsp.mall.support.BoundedCache;
+import com.crsp.mall.support.TransactionHooks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 商品数据库服务类
@@ -14,9 +38,48 @@ import java.util.Optional;
 @Service
 public class ProductDbService {
 
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 50;
+
+    public static final String SORT_SALES = "sales";
+
+    private static final Logger log = LoggerFactory.getLogger(ProductDbService.class);
+
+    private static final int MEDIA_CACHE_SIZE = 256;
+
+    private static final int SKU_CACHE_SIZE = 1024;
+
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private FlashSaleStockLedger stockLedger;
+
+    @Autowired
+    private ProductSkuRepository skuRepository;
+
+    // 上架商品目录快照：读路径无锁读取，写路径在catalogLock内替换
+    private volatile CatalogSnapshot catalog;
+
+    private final Object catalogLock = new Object();
+
+    private long catalogVersion;
+
+    // 上架商品搜索索引，与目录快照同步增量维护
+    private final ProductSearchIndex searchIndex = new ProductSearchIndex();
+
+    // 详情页已解析媒体，按商品ID缓存，商品更新时间变化即失效
+    private final BoundedCache<Long, ProductMedia> mediaCache = new BoundedCache<>(MEDIA_CACHE_SIZE, null);
+
+    // 商品规格和可售位图，按商品ID缓存，规格库存售罄或恢复时更新
+    private final BoundedCache<Long, ProductSkus> skuCache = new BoundedCache<>(SKU_CACHE_SIZE, null);
+
+    // 库存扣减/归还提交后商品的更新时间：卡片不含库存，不替换目录快照，只用于商品详情的ETag
+    private final ConcurrentHashMap<Long, LocalDateTime> stockUpdatedAt = new ConcurrentHashMap<>();
+
     /**
      * 获取所有商品
      */
@@ -25,48 +88,604 @@ public class ProductDbService {
     }
 
     /**
-     * 获取所有上架商品
+     * 获取所有上架商品卡片（来自目录快照，不访问数据库）
      */
-    public List<ProductEntity> getActiveProducts() {
-        return productRepository.findByActiveTrue();
+    public List<ProductCard> getActiveProducts() {
+        return getCatalog().getProducts();
     }
 
     /**
-     * 根据ID获取商品
+     * 获取当前目录快照，首次访问时从数据库加载
+     */
+    public CatalogSnapshot getCatalog() {
+        CatalogSnapshot snapshot = catalog;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (catalogLock) {
+            if (catalog == null) {
+                CatalogSnapshot loaded = CatalogSnapshot.of(++catalogVersion, productRepository.findActiveCards());
+                searchIndex.rebuild(productRepository.findActiveSearchTexts());
+                catalog = loaded;
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * 根据ID获取商品（完整实体，包含媒体和规格）
      */
     public Optional<ProductEntity> getProductById(Long id) {
         return productRepository.findById(id);
     }
 
     /**
-     * 根据ID获取商品（带悲观锁，用于库存扣减等并发场景）
+     * 获取商品详情页媒体（已解析，跨请求缓存）
+     */
+    public ProductMedia getProductMedia(ProductEntity product) {
+        ProductMedia cached = mediaCache.get(product.getId());
+        if (cached != null && Objects.equals(cached.updatedAt(), product.getUpdatedAt())) {
+            return cached;
+        }
+        ProductMedia media = new ProductMedia(product.getUpdatedAt(),
+                product.getDisplayMediaItems(), product.getDetailMediaItems());
+        if (product.getId() != null) {
+            mediaCache.put(product.getId(), media);
+        }
+        return media;
+    }
+
+    /**
+     * 获取商品规格（SKU）和可售位图（跨请求缓存），商品没有规格时为空
+     */
+    public ProductSkus getProductSkus(Long productId) {
+        ProductSkus cached = skuCache.get(productId);
+        if (cached != null) {
+            return cached;
+        }
+        ProductSkus skus = ProductSkus.of(skuRepository.findByProductIdOrderBySortOrderAsc(productId));
+        skuCache.put(productId, skus);
+        return skus;
+    }
+
+    /**
+     * 规格当前库存（读取数据库），null表示不限量
+     * @return 规格ID -> 库存
+     */
+    public Map<Long, Integer> getSkuStocks(Collection<Long> skuIds) {
+        Map<Long, Integer> stocks = new HashMap<>();
+        for (ProductSkuRepository.SkuStock row : skuRepository.findStocks(skuIds)) {
+            stocks.put(row.getId(), row.getStock());
+        }
+        return stocks;
+    }
+
+    /**
+     * 根据ID获取上架商品卡片（来自目录快照）
+     */
+    public Optional<ProductCard> getProductCard(Long id) {
+        return Optional.ofNullable(getCatalog().getProduct(id));
+    }
+
+    /**
+     * 上架商品详情的最后修改时间（快照卡片和库存变更时间中较晚者，不访问数据库），未上架时为空
+     */
+    public Optional<LocalDateTime> getProductLastModified(Long id) {
+        ProductCard card = getCatalog().getProduct(id);
+        if (card == null || card.updatedAt() == null) {
+            return Optional.empty();
+        }
+        LocalDateTime stockChanged = stockUpdatedAt.get(id);
+        return Optional.of(stockChanged != null && stockChanged.isAfter(card.updatedAt())
+                ? stockChanged : card.updatedAt());
+    }
+
+    /**
+     * 扣减库存：按商品ID升序逐个处理，秒杀库存模式的商品在内存台账中预占，
+     * 其他商品执行条件更新语句，不加载实体、不在Java代码中持有行锁
+     * 全部成功或全部不扣减：某个商品失败（已下架或库存不足）时撤销本次已扣减的商品，
+     * 因此多个下单可以共用一个事务（分组提交）
+     * @param quantities 商品ID -> 扣减数量
+     * @return 第一个扣减失败的商品ID，全部成功时为空
+     */
+    public Optional<Long> decrementStock(Map<Long, Integer> quantities) {
+        return decrementStock(quantities, Map.of());
+    }
+
+    /**
+     * 扣减商品和规格（SKU）库存：先按规格ID升序扣减规格库存，再扣减商品库存，全部成功或全部不扣减
+     * @param skuQuantities 规格 -> 扣减数量
+     * @return 第一个扣减失败的商品ID（规格扣减失败时为其所属商品），全部成功时为空
+     */
+    public Optional<Long> decrementStock(Map<Long, Integer> quantities, Map<ProductSkus.Sku, Integer> skuQuantities) {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        Map<Long, ProductSkus.Sku> skusById = new TreeMap<>();
+        skuQuantities.keySet().forEach(sku -> skusById.put(sku.id(), sku));
+        List<ProductSkus.Sku> decremented = new ArrayList<>();
+        for (ProductSkus.Sku sku : skusById.values()) {
+            if (skuRepository.decrementStock(sku.id(), skuQuantities.get(sku)) != 1) {
+                decremented.forEach(d -> skuRepository.incrementStock(d.id(), skuQuantities.get(d)));
+                return Optional.of(sku.productId());
+            }
+            decremented.add(sku);
+        }
+
+        List<Map.Entry<Long, Integer>> reserved = new ArrayList<>();
+        List<Map.Entry<Long, Integer>> updated = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : new TreeMap<>(quantities).entrySet()) {
+            FlashSaleStockLedger.Reservation reservation = stockLedger.reserve(entry.getKey(), entry.getValue());
+            boolean failed;
+            if (reservation == FlashSaleStockLedger.Reservation.NOT_MANAGED) {
+                failed = productRepository.decrementStock(entry.getKey(), entry.getValue(), now) != 1;
+                if (!failed) {
+                    updated.add(entry);
+                }
+            } else {
+                failed = reservation == FlashSaleStockLedger.Reservation.REJECTED;
+                if (!failed) {
+                    reserved.add(entry);
+                }
+            }
+            if (failed) {
+                reserved.forEach(r -> stockLedger.cancel(r.getKey(), r.getValue()));
+                updated.forEach(u -> productRepository.incrementStock(u.getKey(), u.getValue(), now));
+                decremented.forEach(d -> skuRepository.incrementStock(d.id(), skuQuantities.get(d)));
+                return Optional.of(entry.getKey());
+            }
+        }
+        if (!updated.isEmpty()) {
+            List<Long> productIds = updated.stream().map(Map.Entry::getKey).toList();
+            TransactionHooks.afterCommit(() -> applyStockChange(productIds, now));
+        }
+        if (!skusById.isEmpty()) {
+            Set<Long> skuIds = skusById.keySet();
+            TransactionHooks.afterCommit(() -> applySkuStockChange(skuIds, now));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 归还已提交订单扣减的库存（订单取消）：秒杀库存模式的商品在事务提交后归还到台账，
+     * 其他商品和规格在当前事务中加回数据库库存
+     * @param quantities 商品ID -> 归还数量
+     * @param skuQuantities 规格ID -> 归还数量
+     */
+    public void releaseStock(Map<Long, Integer> quantities, Map<Long, Integer> skuQuantities) {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        List<Long> updated = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : new TreeMap<>(quantities).entrySet()) {
+            Long productId = entry.getKey();
+            int quantity = entry.getValue();
+            if (stockLedger.isManaged(productId)) {
+                TransactionHooks.afterCommit(() -> stockLedger.restore(productId, quantity));
+            } else if (productRepository.incrementStock(productId, quantity, now) == 1) {
+                updated.add(productId);
+            }
+        }
+        Set<Long> skuIds = new LinkedHashSet<>();
+        for (Map.Entry<Long, Integer> entry : new TreeMap<>(skuQuantities).entrySet()) {
+            if (skuRepository.incrementStock(entry.getKey(), entry.getValue()) == 1) {
+                skuIds.add(entry.getKey());
+            }
+        }
+        if (!updated.isEmpty()) {
+            TransactionHooks.afterCommit(() -> applyStockChange(updated, now));
+        }
+        if (!skuIds.isEmpty()) {
+            TransactionHooks.afterCommit(() -> applySkuStockChange(skuIds, now));
+        }
+    }
+
+    /**
+     * 商品当前可用库存：秒杀库存模式的商品以内存台账为准，null表示不限库存
+     */
+    public Integer getAvailableStock(ProductEntity product) {
+        Long available = stockLedger.getAvailable(product.getId());
+        return available != null ? Integer.valueOf(available.intValue()) : product.getStock();
+    }
+
+
+    /**
+     * 按商品ID升序分页获取上架商品
+     * @param cursor 上一页返回的游标，首页传null
+     * @param size 每页数量，超出上限时截断
+     */
+    public ProductPage<ProductCard> getActiveProductPage(String cursor, Integer size) {
+        return getActiveProductPage(cursor, size, null);
+    }
+
+    /**
+     * 分页获取上架商品
+     * @param sort 排序方式：null或空按商品ID升序，"sales"按销量降序
+     */
+    public ProductPage<ProductCard> getActiveProductPage(String cursor, Integer size, String sort) {
+        return getActiveProductPage(getCatalog(), cursor, size, sort);
+    }
+
+    /**
+     * 从指定目录快照分页获取上架商品（调用方已用同一快照计算ETag时使用）
+     */
+    public ProductPage<ProductCard> getActiveProductPage(CatalogSnapshot snapshot, String cursor, Integer size,
+                                                         String sort) {
+        int pageSize = normalizePageSize(size);
+        boolean bySales;
+        if (sort == null || sort.isEmpty()) {
+            bySales = false;
+        } else if (SORT_SALES.equals(sort)) {
+            bySales = true;
+        } else {
+            throw new IllegalArgumentException("不支持的排序方式");
+        }
+        List<ProductCard> products = bySales ? snapshot.getProductsBySales() : snapshot.getProducts();
+        int from = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            if (bySales) {
+                long[] position = parseSalesCursor(cursor);
+                from = snapshot.indexAfterBySales(position[0], position[1]);
+            } else {
+                from = snapshot.indexAfter(parseIdCursor(cursor));
+            }
+        }
+        int to = Math.min(from + pageSize, products.size());
+        List<ProductCard> items = products.subList(from, to);
+        String next = null;
+        if (to < products.size()) {
+            ProductCard last = items.get(items.size() - 1);
+            next = encodeCursor(bySales ? "v:" + last.soldCount() + ":" + last.id() : "i:" + last.id());
+        }
+        return new ProductPage<>(items, next, products.size());
+    }
+
+    /**
+     * 热销商品（按销量降序的前N个，来自目录快照）
      */
-    public Optional<ProductEntity> getProductByIdForUpdate(Long id) {
-        return productRepository.findByIdForUpdate(id);
+    public List<ProductCard> getHotProducts(int limit) {
+        List<ProductCard> bySales = getCatalog().getProductsBySales();
+        return bySales.subList(0, Math.min(limit, bySales.size()));
     }
 
     /**
-     * 搜索商品
+     * 分页搜索商品：按相关度降序、商品ID升序排列，关键词为空时等同于全部上架商品分页
      */
-    public List<ProductEntity> searchProducts(String keyword) {
+    public ProductPage<ProductCard> searchProductPage(String keyword, String cursor, Integer size) {
+        return searchProductPage(getCatalog(), keyword, cursor, size);
+    }
+
+    /**
+     * 在指定目录快照上分页搜索商品（调用方已用同一快照计算ETag时使用）
+     */
+    public ProductPage<ProductCard> searchProductPage(CatalogSnapshot snapshot, String keyword, String cursor,
+                                                      Integer size) {
         if (keyword == null || keyword.trim().isEmpty()) {
-            return productRepository.findByActiveTrue();
+            return getActiveProductPage(snapshot, cursor, size, null);
+        }
+        int pageSize = normalizePageSize(size);
+        ProductSearchIndex.Hit after = cursor != null && !cursor.isEmpty() ? parseScoreCursor(cursor) : null;
+        ProductSearchIndex.Page hits = searchIndex.search(keyword.trim(), after, pageSize);
+
+        List<ProductCard> items = new ArrayList<>(hits.hits().size());
+        for (ProductSearchIndex.Hit hit : hits.hits()) {
+            ProductCard product = snapshot.getProduct(hit.productId());
+            if (product != null) {
+                items.add(product);
+            }
         }
-        return productRepository.searchActiveProducts(keyword.trim());
+        String next = null;
+        if (hits.hasMore()) {
+            ProductSearchIndex.Hit lastHit = hits.hits().get(hits.hits().size() - 1);
+            next = encodeCursor("s:" + Double.doubleToLongBits(lastHit.score()) + ":" + lastHit.productId());
+        }
+        return new ProductPage<>(items, next, hits.total());
+    }
+
+    private static int normalizePageSize(Integer size) {
+        if (size == null || size < 1) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(size, MAX_PAGE_SIZE);
+    }
+
+    private static String encodeCursor(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+    }
+
+    private static long parseIdCursor(String cursor) {
+        String raw = decodeCursor(cursor);
+        try {
+            if (raw.startsWith("i:")) {
+                return Long.parseLong(raw.substring(2));
+            }
+        } catch (NumberFormatException ignored) {
+            // 落入下方统一异常
+        }
+        throw new IllegalArgumentException("无效的分页游标");
+    }
+
+    private static long[] parseSalesCursor(String cursor) {
+        String[] parts = decodeCursor(cursor).split(":");
+        try {
+            if (parts.length == 3 && "v".equals(parts[0])) {
+                return new long[] {Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+            }
+        } catch (NumberFormatException ignored) {
+            // 落入下方统一异常
+        }
+        throw new IllegalArgumentException("无效的分页游标");
+    }
+
+    private static ProductSearchIndex.Hit parseScoreCursor(String cursor) {
+        String[] parts = decodeCursor(cursor).split(":");
+        try {
+            if (parts.length == 3 && "s".equals(parts[0])) {
+                double score = Double.longBitsToDouble(Long.parseLong(parts[1]));
+                return new ProductSearchIndex.Hit(Long.parseLong(parts[2]), score);
+            }
+        } catch (NumberFormatException ignored) {
+            // 落入下方统一异常
+        }
+        throw new IllegalArgumentException("无效的分页游标");
     }
 
     /**
-     * 保存商品
+     * 保存商品（商品和规格行在同一事务中写入，提交后再更新快照和台账）
      */
+    @Transactional
     public ProductEntity saveProduct(ProductEntity product) {
-        return productRepository.save(product);
+        if (product.getId() != null && product.getSoldCount() == null) {
+            // 表单提交的商品不含已售数量，沿用数据库中的值（该列只通过原子累加更新）
+            for (ProductRepository.SoldCount row : productRepository.findSoldCounts(List.of(product.getId()))) {
+                product.setSoldCount(row.getSoldCount());
+            }
+        }
+        // 规格库存保存到规格（SKU）表，规格JSON只保留名称、图片和价格
+        List<SpecItem> specs = product.getSpecificationItems();
+        if (product.getSpecifications() != null) {
+            product.setSpecificationItems(specs.stream()
+                    .map(spec -> new SpecItem(spec.name().trim(), spec.image(), spec.price(), null))
+                    .toList());
+        }
+        ProductEntity saved = productRepository.save(product);
+        syncSkus(saved.getId(), specs);
+        TransactionHooks.afterCommit(() -> {
+            stockLedger.onProductChanged(saved.getId(), Boolean.TRUE.equals(saved.getFlashSale()));
+            applyCatalogChange(saved.getId(), saved);
+        });
+        return saved;
     }
 
     /**
-     * 删除商品
+     * 删除商品及其规格行（同一事务）
      */
+    @Transactional
     public void deleteProduct(Long id) {
         productRepository.deleteById(id);
+        skuRepository.deleteByProductId(id);
+        TransactionHooks.afterCommit(() -> {
+            stockLedger.onProductChanged(id, false);
+            applyCatalogChange(id, null);
+        });
+    }
+
+    /**
+     * 按规格列表同步规格（SKU）行：同名规格保留ID，更新图片、价格和排序；
+     * 库存未填写时沿用原库存（新规格不限量），小于0表示不限量
+     */
+    private void syncSkus(Long productId, List<SpecItem> specs) {
+        Map<String, ProductSkuEntity> existing = new HashMap<>();
+        for (ProductSkuEntity sku : skuRepository.findByProductIdOrderBySortOrderAsc(productId)) {
+            existing.put(sku.getSpecName(), sku);
+        }
+        List<ProductSkuEntity> rows = new ArrayList<>(specs.size());
+        Set<String> names = new HashSet<>();
+        for (SpecItem spec : specs) {
+            String name = spec.name().trim();
+            if (!names.add(name)) {
+                continue;
+            }
+            ProductSkuEntity sku = existing.remove(name);
+            if (sku == null) {
+                sku = new ProductSkuEntity();
+                sku.setProductId(productId);
+                sku.setSpecName(name);
+            }
+            sku.setImage(spec.image() != null && !spec.image().isEmpty() ? spec.image() : null);
+            sku.setPrice(spec.price() != null && spec.price() > 0 ? spec.price() : null);
+            if (spec.stock() != null) {
+                sku.setStock(spec.stock() >= 0 ? spec.stock() : null);
+            }
+            sku.setSortOrder(rows.size());
+            rows.add(sku);
+        }
+        if (!existing.isEmpty()) {
+            skuRepository.deleteAllInBatch(existing.values());
+        }
+        if (!rows.isEmpty()) {
+            skuRepository.saveAll(rows);
+        }
+    }
+
+    /**
+     * 丢弃当前快照，下次读取时从数据库重新加载
+     */
+    public void refreshCatalog() {
+        long version;
+        synchronized (catalogLock) {
+            catalog = null;
+            version = catalogVersion;
+        }
+        eventPublisher.publishEvent(new CatalogChangedEvent(version, null, true));
+    }
+
+    /**
+     * 库存扣减或归还提交后记录商品的更新时间，使商品详情的ETag变化。
+     * 卡片不含库存，不替换目录快照、不增加目录版本，列表ETag和页面缓存不受影响
+     */
+    private void applyStockChange(Collection<Long> productIds, LocalDateTime updatedAt) {
+        for (Long productId : productIds) {
+            stockUpdatedAt.merge(productId, updatedAt, (a, b) -> a.isAfter(b) ? a : b);
+        }
+    }
+
+    /**
+     * 规格库存变化提交后更新缓存的可售位图，只有规格售罄或恢复可售时才使商品详情页失效
+     */
+    private void applySkuStockChange(Collection<Long> skuIds, LocalDateTime updatedAt) {
+        List<Long> changed = new ArrayList<>();
+        for (ProductSkuRepository.SkuStock row : skuRepository.findStocks(skuIds)) {
+            ProductSkus cached = skuCache.get(row.getProductId());
+            int index = cached != null ? cached.indexOfId(row.getId()) : -1;
+            if (index < 0) {
+                continue;
+            }
+            boolean available = row.getStock() == null || row.getStock() > 0;
+            if (cached.isAvailable(index) != available) {
+                skuCache.put(row.getProductId(), cached.withAvailable(index, available));
+                if (!changed.contains(row.getProductId())) {
+                    changed.add(row.getProductId());
+                }
+            }
+        }
+        if (!changed.isEmpty()) {
+            applyStockChange(changed, updatedAt);
+            // 详情页展示规格是否售罄
+            changed.forEach(productId -> eventPublisher.publishEvent(new ProductStockChangedEvent(productId)));
+        }
+    }
+
+    /**
+     * 将最新已售数量应用到目录快照（销量累加落库后调用）。
+     * 列表接口返回精确销量和销量排序，数量变化时总是生成新版本快照（ETag随之变化）；
+     * 只有销量显示文本变化时才发布目录变更事件，页面缓存不因每次销量落库而失效
+     * @param soldCounts 商品ID -> 最新已售数量
+     */
+    public void applySoldCounts(Map<Long, Long> soldCounts) {
+        if (soldCounts.isEmpty()) {
+            return;
+        }
+        CatalogChangedEvent event = null;
+        synchronized (catalogLock) {
+            if (catalog == null) {
+                return;
+            }
+            CatalogSnapshot previous = catalog;
+            boolean countChanged = false;
+            boolean listingChanged = false;
+            for (Map.Entry<Long, Long> entry : soldCounts.entrySet()) {
+                ProductCard before = previous.getProduct(entry.getKey());
+                if (before == null || before.soldCount() == entry.getValue()) {
+                    continue;
+                }
+                countChanged = true;
+                if (!before.sameListing(before.withSoldCount(entry.getValue()))) {
+                    listingChanged = true;
+                    break;
+                }
+            }
+            if (!countChanged) {
+                return;
+            }
+            long version = ++catalogVersion;
+            catalog = previous.withSoldCounts(version, soldCounts);
+            if (listingChanged) {
+                event = new CatalogChangedEvent(version, null, true);
+            }
+        }
+        if (event != null) {
+            eventPublisher.publishEvent(event);
+        }
+    }
+
+    /**
+     * 将单个商品的变更应用到目录快照和搜索索引（product为null表示已删除）
+     */
+    private void applyCatalogChange(Long productId, ProductEntity product) {
+        mediaCache.invalidate(productId);
+        skuCache.invalidate(productId);
+        // 商品已删除，或新卡片的更新时间已包含此前的库存变更
+        LocalDateTime cardUpdatedAt = product != null ? product.getUpdatedAt() : null;
+        stockUpdatedAt.computeIfPresent(productId, (id, time) ->
+                product == null || (cardUpdatedAt != null && !time.isAfter(cardUpdatedAt)) ? null : time);
+        CatalogChangedEvent event;
+        synchronized (catalogLock) {
+            // 快照尚未加载时无需更新快照，首次读取会加载最新数据
+            if (catalog == null) {
+                event = new CatalogChangedEvent(catalogVersion, productId, true);
+            } else {
+                long version = ++catalogVersion;
+                ProductCard previous = catalog.getProduct(productId);
+                boolean listingChanged;
+                if (product != null && Boolean.TRUE.equals(product.getActive())) {
+                    ProductCard card = ProductCard.of(product);
+                    listingChanged = !card.sameListing(previous);
+                    catalog = catalog.withProduct(version, card);
+                    searchIndex.add(product);
+                } else {
+                    listingChanged = previous != null;
+                    catalog = catalog.withoutProduct(version, productId);
+                    searchIndex.remove(productId);
+                }
+                event = new CatalogChangedEvent(version, productId, listingChanged);
+            }
+        }
+        eventPublisher.publishEvent(event);
+    }
+
+    /**
+     * 为旧数据回填首图、首个视频和媒体数量列
+     * @return 回填的商品数量
+     */
+    public int backfillMediaSummary() {
+        List<ProductEntity> legacy = productRepository.findByMediaCountIsNull();
+        if (legacy.isEmpty()) {
+            return 0;
+        }
+        for (ProductEntity product : legacy) {
+            product.refreshMediaSummary();
+        }
+        productRepository.saveAll(legacy);
+        refreshCatalog();
+        log.info("已回填{}个商品的媒体派生列", legacy.size());
+        return legacy.size();
+    }
+
+    /**
+     * 为旧数据按规格JSON生成规格（SKU）行（不限量）
+     * @return 回填的商品数量
+     */
+    public int backfillSkus() {
+        List<ProductEntity> legacy = productRepository.findWithoutSkus();
+        for (ProductEntity product : legacy) {
+            syncSkus(product.getId(), product.getSpecificationItems());
+            skuCache.invalidate(product.getId());
+        }
+        if (!legacy.isEmpty()) {
+            log.info("已为{}个商品生成规格库存", legacy.size());
+        }
+        return legacy.size();
+    }
+
+    /**
+     * 将旧版销量文本（如 "已售 2.3万件"）迁移为已售数量
+     * @return 迁移的商品数量
+     */
+    public int backfillSoldCounts() {
+        List<ProductEntity> legacy = productRepository.findBySoldCountIsNull();
+        for (ProductEntity product : legacy) {
+            productRepository.incrementSoldCount(product.getId(), ProductEntity.parseSales(product.getLegacySales()));
+        }
+        if (!legacy.isEmpty()) {
+            refreshCatalog();
+            log.info("已迁移{}个商品的销量数据", legacy.size());
+        }
+        return legacy.size();
     }
 
     /**
@@ -74,32 +693,32 @@ public class ProductDbService {
      */
     public void initDefaultProducts() {
         if (productRepository.count() == 0) {
-            saveProduct(createProduct("高级震动按摩棒 多频调节", 128, 256, "已售 2.3万件",
+            saveProduct(createProduct("高级震动按摩棒 多频调节", 128, 256, 23000,
                     "fa-wand-magic-sparkles", "#ffecd2, #fcb69f", "新品", 100));
-            saveProduct(createProduct("智能遥控跳蛋 静音设计", 89, 178, "已售 1.5万件",
+            saveProduct(createProduct("智能遥控跳蛋 静音设计", 89, 178, 15000,
                     "fa-circle", "#a1c4fd, #c2e9fb", "热卖", 150));
-            saveProduct(createProduct("情趣内衣套装 蕾丝款", 68, 136, "已售 8500件",
+            saveProduct(createProduct("情趣内衣套装 蕾丝款", 68, 136, 8500,
                     "fa-shirt", "#d299c2, #fef9d7", "特价", 200));
-            saveProduct(createProduct("延时喷剂 植物配方", 158, 316, "已售 3.2万件",
+            saveProduct(createProduct("延时喷剂 植物配方", 158, 316, 32000,
                     "fa-spray-can", "#f5f7fa, #c3cfe2", "爆款", 80));
-            saveProduct(createProduct("安全套超薄装 12只", 39, 78, "已售 1.8万件",
+            saveProduct(createProduct("安全套超薄装 12只", 39, 78, 18000,
                     "fa-box", "#ffecd2, #fcb69f", "新品", 500));
-            saveProduct(createProduct("情趣套装 夫妻调情", 299, 598, "已售 9800件",
+            saveProduct(createProduct("情趣套装 夫妻调情", 299, 598, 9800,
                     "fa-gift", "#667eea, #764ba2", "热卖", 60));
-            saveProduct(createProduct("飞机杯 自动加热款", 259, 518, "已售 5600件",
+            saveProduct(createProduct("飞机杯 自动加热款", 259, 518, 5600,
                     "fa-mug-hot", "#43e97b, #38f9d7", "推荐", 75));
-            saveProduct(createProduct("仿真倒模 名器", 399, 798, "已售 4200件",
+            saveProduct(createProduct("仿真倒模 名器", 399, 798, 4200,
                     "fa-gem", "#fa709a, #fee140", "精品", 45));
         }
     }
 
-    private ProductEntity createProduct(String title, double price, double originalPrice, String sales,
+    private ProductEntity createProduct(String title, double price, double originalPrice, long soldCount,
                                          String icon, String bgColor, String tag, Integer stock) {
         ProductEntity product = new ProductEntity();
         product.setTitle(title);
         product.setPrice(price);
         product.setOriginalPrice(originalPrice);
-        product.setSales(sales);
+        product.setSoldCount(soldCount);
         product.setIcon(icon);
         product.setBgColor(bgColor);
         product.setTag(tag);
@@ -0,0 +1,14 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.MediaItem;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 商品详情页媒体（已解析）
+ * @param updatedAt 解析时商品的更新时间，用于判断缓存是否过期
+ * @param displayMedia 展示图片/视频
+ * @param detailMedia 详情图片/视频
+ */
+public record ProductMedia(LocalDateTime updatedAt, List<MediaItem> displayMedia, List<MediaItem> detailMedia) {}
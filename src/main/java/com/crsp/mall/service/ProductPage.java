@@ -0,0 +1,16 @@
+package com.crsp.mall.service;
+
+import java.util.List;
+
+/**
+ * 商品分页结果（游标分页）
+ * @param items 当前页商品
+ * @param nextCursor 下一页游标，没有更多数据时为null
+ * @param total 符合条件的商品总数
+ */
+public record ProductPage<T>(List<T> items, String nextCursor, int total) {
+
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,378 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.repository.ProductRepository;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品搜索倒排索引 - 基于BM25排序
+ * 中日韩文字按单字+二元组（bigram）切分，无需分词词典；字母数字按单词切分并支持前缀匹配。
+ * 索引覆盖标题、标签、规格和描述四个字段，按字段加权。
+ */
+public class ProductSearchIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final float TITLE_WEIGHT = 3.0f;
+    private static final float TAG_WEIGHT = 2.0f;
+    private static final float SPEC_WEIGHT = 1.5f;
+    private static final float DESCRIPTION_WEIGHT = 1.0f;
+
+    // 前缀展开的最大词项数，避免单字母查询展开过多
+    private static final int MAX_PREFIX_EXPANSION = 64;
+
+    private final NavigableMap<String, Map<Long, Float>> postings = new TreeMap<>();
+
+    private final Map<Long, IndexedDoc> docs = new HashMap<>();
+
+    private double totalLength;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 搜索命中结果
+     */
+    public record Hit(Long productId, double score) {}
+
+    /**
+     * 命中排序：得分降序，相同时商品ID升序
+     */
+    public static final Comparator<Hit> HIT_ORDER = Comparator.comparingDouble(Hit::score).reversed()
+            .thenComparing(Hit::productId);
+
+    /**
+     * 一页搜索结果
+     * @param hits 本页命中（按HIT_ORDER排序）
+     * @param total 命中总数
+     * @param hasMore 本页之后是否还有命中
+     */
+    public record Page(List<Hit> hits, int total, boolean hasMore) {}
+
+    private record IndexedDoc(float length, Set<String> terms) {}
+
+    /**
+     * 添加或更新商品索引
+     */
+    public void add(ProductEntity product) {
+        add(product.getId(), product.getTitle(), product.getTag(), product.getSpec(), product.getDescription());
+    }
+
+    /**
+     * 添加或更新商品索引（按字段传入可搜索文本）
+     */
+    public void add(Long productId, String title, String tag, String spec, String description) {
+        Map<String, Float> termWeights = new HashMap<>();
+        float length = 0;
+        length += accumulate(termWeights, title, TITLE_WEIGHT);
+        length += accumulate(termWeights, tag, TAG_WEIGHT);
+        length += accumulate(termWeights, spec, SPEC_WEIGHT);
+        length += accumulate(termWeights, description, DESCRIPTION_WEIGHT);
+
+        lock.writeLock().lock();
+        try {
+            removeInternal(productId);
+            for (Map.Entry<String, Float> entry : termWeights.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(productId, entry.getValue());
+            }
+            docs.put(productId, new IndexedDoc(length, termWeights.keySet()));
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除商品索引
+     */
+    public void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 清空后重建全部索引
+     */
+    public void rebuild(Collection<ProductRepository.SearchText> products) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docs.clear();
+            totalLength = 0;
+            for (ProductRepository.SearchText product : products) {
+                add(product.getId(), product.getTitle(), product.getTag(), product.getSpec(), product.getDescription());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 分页搜索：所有查询词都需命中（AND），按BM25得分降序、商品ID升序排列。
+     * 只选出排在after之后的前limit个命中（容量为limit的堆），不对全部命中排序，游标位置不影响开销
+     * @param after 上一页最后一个命中，首页传null
+     */
+    public Page search(String keyword, Hit after, int limit) {
+        Map<Long, Double> scores = score(keyword);
+        // 堆顶为已选命中中排序最靠后的一个
+        PriorityQueue<Hit> selected = new PriorityQueue<>(limit + 1, HIT_ORDER.reversed());
+        int remaining = 0;
+        for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+            Hit hit = new Hit(entry.getKey(), entry.getValue());
+            if (after != null && HIT_ORDER.compare(hit, after) <= 0) {
+                continue;
+            }
+            remaining++;
+            if (selected.size() < limit) {
+                selected.add(hit);
+            } else if (HIT_ORDER.compare(hit, selected.peek()) < 0) {
+                selected.poll();
+                selected.add(hit);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(selected);
+        hits.sort(HIT_ORDER);
+        return new Page(hits, scores.size(), remaining > hits.size());
+    }
+
+    /**
+     * 计算命中商品的BM25得分，无命中时为空
+     */
+    private Map<Long, Double> score(String keyword) {
+        List<QueryTerm> queryTerms = parseQuery(keyword);
+        if (queryTerms.isEmpty()) {
+            return Map.of();
+        }
+        lock.readLock().lock();
+        try {
+            int docCount = docs.size();
+            if (docCount == 0) {
+                return Map.of();
+            }
+            double avgLength = totalLength / docCount;
+
+            // 每个查询词展开为命中的索引词项，任意一个查询词无命中则结果为空
+            List<List<String>> expanded = new ArrayList<>(queryTerms.size());
+            for (QueryTerm term : queryTerms) {
+                List<String> matches = expand(term);
+                if (matches.isEmpty()) {
+                    return Map.of();
+                }
+                expanded.add(matches);
+            }
+
+            // 从文档频率最小的查询词开始求交集
+            expanded.sort((a, b) -> Integer.compare(documentFrequency(a), documentFrequency(b)));
+            Map<Long, Double> scores = null;
+            for (List<String> terms : expanded) {
+                Map<Long, Double> termScores = new HashMap<>();
+                for (String term : terms) {
+                    Map<Long, Float> posting = postings.get(term);
+                    double idf = idf(docCount, posting.size());
+                    if (scores == null) {
+                        posting.forEach((id, tf) -> termScores.merge(id, bm25(idf, tf, id, avgLength), Double::sum));
+                    } else {
+                        // 后续查询词只探测已命中的候选文档，开销与最短倒排表成正比
+                        for (Long id : scores.keySet()) {
+                            Float tf = posting.get(id);
+                            if (tf != null) {
+                                termScores.merge(id, bm25(idf, tf, id, avgLength), Double::sum);
+                            }
+                        }
+                    }
+                }
+                if (scores != null) {
+                    Map<Long, Double> previous = scores;
+                    termScores.replaceAll((id, score) -> score + previous.get(id));
+                }
+                scores = termScores;
+                if (scores.isEmpty()) {
+                    return Map.of();
+                }
+            }
+            return scores;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ===== 内部实现（调用方需持有锁） =====
+
+    private void removeInternal(Long productId) {
+        IndexedDoc doc = docs.remove(productId);
+        if (doc == null) {
+            return;
+        }
+        totalLength -= doc.length();
+        for (String term : doc.terms()) {
+            Map<Long, Float> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    private List<String> expand(QueryTerm term) {
+        if (!term.prefix()) {
+            return postings.containsKey(term.text()) ? List.of(term.text()) : List.of();
+        }
+        List<String> matches = new ArrayList<>();
+        for (String candidate : postings.tailMap(term.text(), true).keySet()) {
+            if (!candidate.startsWith(term.text()) || matches.size() >= MAX_PREFIX_EXPANSION) {
+                break;
+            }
+            matches.add(candidate);
+        }
+        return matches;
+    }
+
+    private int documentFrequency(List<String> terms) {
+        int df = 0;
+        for (String term : terms) {
+            df += postings.get(term).size();
+        }
+        return df;
+    }
+
+    private double bm25(double idf, float tf, Long productId, double avgLength) {
+        double norm = K1 * (1 - B + B * docs.get(productId).length() / avgLength);
+        return idf * tf * (K1 + 1) / (tf + norm);
+    }
+
+    private static double idf(int docCount, int docFrequency) {
+        return Math.log(1 + (docCount - docFrequency + 0.5) / (docFrequency + 0.5));
+    }
+
+    private static float accumulate(Map<String, Float> termWeights, String text, float weight) {
+        List<String> tokens = tokenize(text);
+        for (String token : tokens) {
+            termWeights.merge(token, weight, Float::sum);
+        }
+        return tokens.size() * weight;
+    }
+
+    // ===== 分词 =====
+
+    private record QueryTerm(String text, boolean prefix) {}
+
+    /**
+     * 文档分词：中日韩文字输出单字和相邻二元组，字母数字输出整词
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        for (Run run : runs(normalize(text))) {
+            if (run.cjk()) {
+                String s = run.text();
+                int[] cps = s.codePoints().toArray();
+                for (int i = 0; i < cps.length; i++) {
+                    tokens.add(new String(cps, i, 1));
+                    if (i + 1 < cps.length) {
+                        tokens.add(new String(cps, i, 2));
+                    }
+                }
+            } else {
+                tokens.add(run.text());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 查询分词：中日韩文字长度≥2时只用二元组，单字查询用单字；字母数字按前缀匹配
+     */
+    private static List<QueryTerm> parseQuery(String keyword) {
+        Set<QueryTerm> terms = new LinkedHashSet<>();
+        if (keyword == null || keyword.isBlank()) {
+            return List.of();
+        }
+        for (Run run : runs(normalize(keyword))) {
+            if (run.cjk()) {
+                int[] cps = run.text().codePoints().toArray();
+                if (cps.length == 1) {
+                    terms.add(new QueryTerm(run.text(), false));
+                }
+                for (int i = 0; i + 1 < cps.length; i++) {
+                    terms.add(new QueryTerm(new String(cps, i, 2), false));
+                }
+            } else {
+                terms.add(new QueryTerm(run.text(), true));
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    private record Run(String text, boolean cjk) {}
+
+    private static List<Run> runs(String text) {
+        List<Run> runs = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        Boolean currentCjk = null;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            boolean cjk = isCjk(cp);
+            boolean word = cjk || Character.isLetterOrDigit(cp);
+            if (!word || (currentCjk != null && currentCjk != cjk)) {
+                if (current.length() > 0) {
+                    runs.add(new Run(current.toString(), currentCjk));
+                    current.setLength(0);
+                }
+                currentCjk = null;
+            }
+            if (word) {
+                current.appendCodePoint(cp);
+                currentCjk = cjk;
+            }
+        }
+        if (current.length() > 0) {
+            runs.add(new Run(current.toString(), currentCjk));
+        }
+        return runs;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static String normalize(String text) {
+        // NFKC将全角字母数字转为半角
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+}
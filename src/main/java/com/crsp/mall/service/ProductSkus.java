@@ -0,0 +1,120 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductSkuEntity;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 商品规格（SKU）列表和可售位图 - 不可变对象，按商品缓存
+ * 第i位为1表示第i个规格（按排序）有库存，详情页据此置灰已售罄的规格，无需解析规格JSON。
+ */
+public final class ProductSkus {
+
+    public static final ProductSkus EMPTY = new ProductSkus(List.of(), new BitSet());
+
+    /**
+     * 规格
+     * @param price 规格价格，为空时使用商品价格
+     */
+    public record Sku(Long id, Long productId, String name, String image, Double price) {}
+
+    /**
+     * 详情页规格选项
+     */
+    public record Option(String name, String image, Double price, boolean available) {}
+
+    private final List<Sku> skus;
+
+    private final BitSet available;
+
+    private ProductSkus(List<Sku> skus, BitSet available) {
+        this.skus = skus;
+        this.available = available;
+    }
+
+    /**
+     * 根据规格行（已按排序）构建
+     */
+    public static ProductSkus of(List<ProductSkuEntity> rows) {
+        if (rows.isEmpty()) {
+            return EMPTY;
+        }
+        List<Sku> skus = new ArrayList<>(rows.size());
+        BitSet available = new BitSet(rows.size());
+        for (ProductSkuEntity row : rows) {
+            if (row.getStock() == null || row.getStock() > 0) {
+                available.set(skus.size());
+            }
+            skus.add(new Sku(row.getId(), row.getProductId(), row.getSpecName(), row.getImage(), row.getPrice()));
+        }
+        return new ProductSkus(Collections.unmodifiableList(skus), available);
+    }
+
+    public boolean isEmpty() {
+        return skus.isEmpty();
+    }
+
+    public int size() {
+        return skus.size();
+    }
+
+    public Sku get(int index) {
+        return skus.get(index);
+    }
+
+    public List<Sku> getSkus() {
+        return skus;
+    }
+
+    /**
+     * 按规格名称查找，不存在时返回-1
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < skus.size(); i++) {
+            if (skus.get(i).name().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按规格ID查找，不存在时返回-1
+     */
+    public int indexOfId(Long skuId) {
+        for (int i = 0; i < skus.size(); i++) {
+            if (skus.get(i).id().equals(skuId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isAvailable(int index) {
+        return available.get(index);
+    }
+
+    /**
+     * 返回修改指定规格可售状态后的新对象
+     */
+    public ProductSkus withAvailable(int index, boolean value) {
+        BitSet updated = (BitSet) available.clone();
+        updated.set(index, value);
+        return new ProductSkus(skus, updated);
+    }
+
+    /**
+     * 详情页规格选项（含可售状态）
+     */
+    public List<Option> getOptions() {
+        List<Option> options = new ArrayList<>(skus.size());
+        for (int i = 0; i < skus.size(); i++) {
+            Sku sku = skus.get(i);
+            options.add(new Option(sku.name(), sku.image(), sku.price(), available.get(i)));
+        }
+        return options;
+    }
+}
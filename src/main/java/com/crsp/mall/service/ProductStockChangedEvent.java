@@ -0,0 +1,7 @@
+package com.crsp.mall.service;
+
+/**
+ * 商品规格售罄或恢复可售事件 - 在事务提交后发布，只影响该商品的详情页（列表和搜索不展示库存）
+ * @param productId 规格可售状态变化的商品ID
+ */
+public record ProductStockChangedEvent(Long productId) {}
@@ -0,0 +1,156 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.BrowsingHistoryEntity;
+import com.crsp.mall.entity.CartItemEntity;
+import com.crsp.mall.entity.FavoriteEntity;
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.repository.BrowsingHistoryRepository;
+import com.crsp.mall.repository.CartItemRepository;
+import com.crsp.mall.repository.FavoriteRepository;
+import com.crsp.mall.support.BoundedCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 个性化推荐服务（猜你喜欢）
+ * 以用户最近的收藏、加购和浏览商品为种子，累加种子商品近邻的得分；
+ * 每个用户只读取固定数量的行为记录，计算开销与商品总数无关。结果按用户缓存。
+ */
+@Service
+public class RecommendationService {
+
+    public static final int MAX_LIMIT = 20;
+
+    private static final double FAVORITE_WEIGHT = 3.0;
+    private static final double CART_WEIGHT = 2.0;
+    private static final double VIEW_WEIGHT = 1.0;
+
+    private static final int CACHE_SIZE = 10_000;
+    private static final Duration CACHE_TTL = Duration.ofMinutes(5);
+
+    @Autowired
+    private FavoriteRepository favoriteRepository;
+
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
+    @Autowired
+    private BrowsingHistoryRepository browsingHistoryRepository;
+
+    @Autowired
+    private RelatedProductService relatedProductService;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    // 用户ID -> 推荐结果
+    private final BoundedCache<Long, Ranking> cache = new BoundedCache<>(CACHE_SIZE, CACHE_TTL);
+
+    /**
+     * @param ranked 推荐商品ID（按得分降序）
+     * @param excluded 需排除的商品（已收藏、已加购），默认商品补齐时跳过
+     */
+    private record Ranking(List<Long> ranked, Set<Long> excluded) {}
+
+    /**
+     * 获取推荐商品，userId为null（未识别用户）时返回默认商品
+     */
+    public List<ProductCard> recommend(Long userId, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+        if (userId == null) {
+            return fill(new ArrayList<>(size), Set.of(), size);
+        }
+        Ranking ranking = cache.get(userId);
+        if (ranking == null) {
+            ranking = rank(userId);
+            cache.put(userId, ranking);
+        }
+        List<ProductCard> result = new ArrayList<>(size);
+        for (Long productId : ranking.ranked()) {
+            if (result.size() >= size) {
+                break;
+            }
+            productDbService.getProductCard(productId).ifPresent(result::add);
+        }
+        return fill(result, ranking.excluded(), size);
+    }
+
+    /**
+     * 用户收藏或购物车变化后使其推荐结果失效
+     */
+    public void invalidate(Long userId) {
+        if (userId != null) {
+            cache.invalidate(userId);
+        }
+    }
+
+    private Ranking rank(Long userId) {
+        Map<Long, Double> seeds = new LinkedHashMap<>();
+        Set<Long> owned = new HashSet<>();
+        for (FavoriteEntity favorite : favoriteRepository.findTop20ByUserIdOrderByCreatedAtDesc(userId)) {
+            seeds.merge(favorite.getProductId(), FAVORITE_WEIGHT, Double::sum);
+            owned.add(favorite.getProductId());
+        }
+        for (CartItemEntity item : cartItemRepository.findTop20ByUserIdOrderByCreatedAtDesc(userId)) {
+            seeds.merge(item.getProductId(), CART_WEIGHT, Double::sum);
+            owned.add(item.getProductId());
+        }
+        List<BrowsingHistoryEntity> history = browsingHistoryRepository.findTop20ByUserIdOrderByViewedAtDesc(userId);
+        for (int i = 0; i < history.size(); i++) {
+            // 越近的浏览权重越高
+            seeds.merge(history.get(i).getProductId(), VIEW_WEIGHT / (1 + i * 0.1), Double::sum);
+        }
+
+        Map<Long, Double> scores = new HashMap<>();
+        for (Map.Entry<Long, Double> seed : seeds.entrySet()) {
+            long[] neighbors = relatedProductService.getNeighbors(seed.getKey());
+            for (int rank = 0; rank < neighbors.length; rank++) {
+                Long candidate = neighbors[rank];
+                if (!owned.contains(candidate) && !seeds.containsKey(candidate)) {
+                    scores.merge(candidate, seed.getValue() / (rank + 1), Double::sum);
+                }
+            }
+        }
+        List<Map.Entry<Long, Double>> sorted = new ArrayList<>(scores.entrySet());
+        sorted.sort((a, b) -> {
+            int byScore = Double.compare(b.getValue(), a.getValue());
+            return byScore != 0 ? byScore : Long.compare(a.getKey(), b.getKey());
+        });
+        List<Long> ranked = new ArrayList<>(Math.min(sorted.size(), MAX_LIMIT));
+        for (int i = 0; i < sorted.size() && i < MAX_LIMIT; i++) {
+            ranked.add(sorted.get(i).getKey());
+        }
+        return new Ranking(List.copyOf(ranked), Set.copyOf(owned));
+    }
+
+    /**
+     * 推荐不足时按目录顺序补齐，跳过已出现或需排除的商品
+     */
+    private List<ProductCard> fill(List<ProductCard> result, Set<Long> excluded, int size) {
+        if (result.size() >= size) {
+            return result;
+        }
+        Set<Long> seen = new HashSet<>(excluded);
+        for (ProductCard card : result) {
+            seen.add(card.id());
+        }
+        for (ProductCard card : productDbService.getActiveProducts()) {
+            if (result.size() >= size) {
+                break;
+            }
+            if (seen.add(card.id())) {
+                result.add(card);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.repository.BrowsingHistoryRepository;
+import com.crsp.mall.repository.CartItemRepository;
+import com.crsp.mall.repository.ProductInteraction;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.LongConsumer;
+
+/**
+ * 相关商品服务 - 后台任务根据浏览记录和购物车计算商品近邻表，详情页直接读取。
+ * 共现计数和水位线在每次刷新后写入快照文件，重启时从快照继续增量计算，不重新扫描全部历史。
+ */
+@Service
+public class RelatedProductService {
+
+    private static final Logger log = LoggerFactory.getLogger(RelatedProductService.class);
+
+    // 每个商品保留的近邻数量
+    static final int TOP_K = 8;
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private BrowsingHistoryRepository browsingHistoryRepository;
+
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    private final CoOccurrenceModel model = new CoOccurrenceModel(TOP_K);
+
+    // 商品ID -> 近邻商品ID（按相似度降序）
+    private final Map<Long, long[]> neighbors = new ConcurrentHashMap<>();
+
+    // 已处理记录的最大ID（增量读取的水位线）
+    private long lastHistoryId;
+
+    private long lastCartItemId;
+
+    private final Path snapshotFile;
+
+    public RelatedProductService(@Value("${app.related.snapshot-file:/data/related/cooccurrence.bin}") String snapshotFile) {
+        this.snapshotFile = Paths.get(snapshotFile);
+    }
+
+    /**
+     * 启动时加载快照（不存在或损坏时从头计算）
+     */
+    @PostConstruct
+    public synchronized void load() {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            long historyId = in.readLong();
+            long cartItemId = in.readLong();
+            model.readFrom(in);
+            lastHistoryId = historyId;
+            lastCartItemId = cartItemId;
+        } catch (IOException e) {
+            log.warn("相关商品快照读取失败，将从头计算: {}", e.getMessage());
+            return;
+        }
+        neighbors.putAll(model.computeDirtyNeighbors());
+        log.info("已加载相关商品快照: 商品{}个", neighbors.size());
+    }
+
+    /**
+     * 获取相关商品：优先使用预计算的近邻（仅上架商品），不足时用其他上架商品补齐
+     */
+    public List<ProductCard> getRelatedProducts(Long productId, int limit) {
+        List<ProductCard> related = new ArrayList<>(limit);
+        Set<Long> seen = new HashSet<>();
+        seen.add(productId);
+        long[] ids = neighbors.get(productId);
+        if (ids != null) {
+            for (long id : ids) {
+                if (related.size() >= limit) {
+                    break;
+                }
+                productDbService.getProductCard(id).ifPresent(card -> {
+                    related.add(card);
+                    seen.add(card.id());
+                });
+            }
+        }
+        if (related.size() < limit) {
+            for (ProductCard card : productDbService.getActiveProducts()) {
+                if (related.size() >= limit) {
+                    break;
+                }
+                if (seen.add(card.id())) {
+                    related.add(card);
+                }
+            }
+        }
+        return related;
+    }
+
+    /**
+     * 获取预计算的近邻商品ID（按相似度降序，可能包含已下架商品），没有时返回空数组
+     */
+    public long[] getNeighbors(Long productId) {
+        long[] ids = neighbors.get(productId);
+        return ids != null ? ids : new long[0];
+    }
+
+    /**
+     * 增量刷新近邻表：读取上次水位线之后的浏览和加购记录，只重算受影响的商品
+     * @return 本次处理的记录数
+     */
+    @Scheduled(initialDelayString = "${app.related.initial-delay-ms:5000}",
+            fixedDelayString = "${app.related.refresh-interval-ms:60000}")
+    public synchronized int refresh() {
+        int processed = 0;
+        processed += consume(browsingHistoryRepository::findInteractionsAfter, lastHistoryId,
+                model::addView, id -> lastHistoryId = id);
+        processed += consume(cartItemRepository::findInteractionsAfter, lastCartItemId,
+                model::addCart, id -> lastCartItemId = id);
+        if (processed > 0) {
+            Map<Long, long[]> updated = model.computeDirtyNeighbors();
+            neighbors.putAll(updated);
+            log.debug("相关商品近邻表已更新: 新增行为{}条, 重算商品{}个", processed, updated.size());
+            save();
+        }
+        return processed;
+    }
+
+    /**
+     * 写入快照：先写临时文件再替换，写入中途退出不会损坏已有快照
+     */
+    @PreDestroy
+    public synchronized void save() {
+        try {
+            Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+            Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeLong(lastHistoryId);
+                out.writeLong(lastCartItemId);
+                model.writeTo(out);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("相关商品快照写入失败: {}", e.getMessage());
+        }
+    }
+
+    private static int consume(BiFunction<Long, PageRequest, List<ProductInteraction>> source, long afterId,
+                               BiConsumer<Long, Long> sink, LongConsumer watermark) {
+        int processed = 0;
+        long last = afterId;
+        List<ProductInteraction> batch;
+        do {
+            batch = source.apply(last, PageRequest.of(0, BATCH_SIZE));
+            for (ProductInteraction interaction : batch) {
+                sink.accept(interaction.getUserId(), interaction.getProductId());
+                last = interaction.getId();
+            }
+            processed += batch.size();
+        } while (batch.size() == BATCH_SIZE);
+        watermark.accept(last);
+        return processed;
+    }
+}
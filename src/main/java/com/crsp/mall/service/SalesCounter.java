@@ -0,0 +1,96 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.repository.ProductRepository;
+import com.crsp.mall.support.TransactionHooks;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品销量计数器 - 下单时在内存中分段累加（LongAdder），订单取消时扣回，定期批量落库
+ * 热销商品的并发下单不会争用同一行锁；落库使用原子累加语句，不会覆盖其他写入。
+ */
+@Service
+public class SalesCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(SalesCounter.class);
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    // 商品ID -> 尚未落库的销量增量
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 记录销量，在当前事务提交后生效（回滚的订单不计入）
+     */
+    public void record(Long productId, long quantity) {
+        if (productId == null || quantity <= 0) {
+            return;
+        }
+        TransactionHooks.afterCommit(() -> pending.computeIfAbsent(productId, k -> new LongAdder()).add(quantity));
+    }
+
+    /**
+     * 撤销已计入的销量（订单取消时），在当前事务提交后生效
+     */
+    public void reverse(Long productId, long quantity) {
+        if (productId == null || quantity <= 0) {
+            return;
+        }
+        TransactionHooks.afterCommit(() -> pending.computeIfAbsent(productId, k -> new LongAdder()).add(-quantity));
+    }
+
+    /**
+     * 尚未落库的销量增量（可能为负）
+     */
+    public long pendingCount(Long productId) {
+        LongAdder adder = pending.get(productId);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    /**
+     * 将累加的销量写入数据库并更新目录快照
+     * @return 本次落库的商品数
+     */
+    @Scheduled(fixedDelayString = "${app.sales.flush-interval-ms:5000}")
+    @PreDestroy
+    public synchronized int flush() {
+        Map<Long, Long> flushed = new HashMap<>();
+        for (Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+            long delta = entry.getValue().sumThenReset();
+            if (delta == 0) {
+                continue;
+            }
+            try {
+                productRepository.incrementSoldCount(entry.getKey(), delta);
+                flushed.put(entry.getKey(), delta);
+            } catch (RuntimeException e) {
+                // 写入失败时放回增量，下次重试
+                entry.getValue().add(delta);
+                log.warn("商品ID={}的销量落库失败: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        if (flushed.isEmpty()) {
+            return 0;
+        }
+        // 读取落库后的绝对值更新快照，避免快照与数据库累积偏差
+        Map<Long, Long> soldCounts = new HashMap<>();
+        for (ProductRepository.SoldCount row : productRepository.findSoldCounts(flushed.keySet())) {
+            soldCounts.put(row.getId(), row.getSoldCount() != null ? row.getSoldCount() : 0L);
+        }
+        productDbService.applySoldCounts(soldCounts);
+        return flushed.size();
+    }
+}
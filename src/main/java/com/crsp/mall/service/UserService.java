@@ -2,16 +2,28 @@ package com.crsp.mall.service;
 
 import com.crsp.mall.entity.*;
 import com.crsp.mall.repository.*;
+import com.crsp.mall.support.BoundedCache;
+import com.crsp.mall.support.TokenSigner;
+import com.crsp.mall.support.TransactionHooks;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * 用户服务类 - 处理用户管理、浏览历史、收藏、购物车
+ * token到用户身份（UserPrincipal）的解析结果缓存在内存中，用户保存或删除时更新。
+ * 新访客先获得签名的临时游客令牌（不写数据库），首次有状态操作时才创建用户记录。
+ * 启用签名用户令牌后，令牌自带用户身份，解析时无需查询数据库，旧的UUID令牌在下次请求时换发。
  */
 @Service
 public class UserService {
@@ -31,32 +43,183 @@ public class UserService {
     @Autowired
     private OrderRepository orderRepository;
 
+    @Autowired
+    private LastVisitTracker lastVisitTracker;
+
+    @Autowired
+    private UserTokenIssuer userTokenIssuer;
+
+    // 临时游客令牌前缀（正式令牌为UUID，不会以g开头）
+    private static final String PROVISIONAL_PREFIX = "g";
+
+    // token -> 用户身份
+    private final BoundedCache<String, UserPrincipal> principals;
+
+    /**
+     * 令牌解析结果
+     * @param principal 用户身份
+     * @param reissuedToken 需要换发时的新令牌（旧UUID令牌升级或签名令牌刷新），否则为null
+     */
+    public record ResolvedToken(UserPrincipal principal, String reissuedToken) {}
+
+    public UserService(@Value("${app.user.principal-cache.max-entries:10000}") int maxEntries,
+                       @Value("${app.user.principal-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.principals = new BoundedCache<>(maxEntries, Duration.ofSeconds(ttlSeconds));
+    }
+
     // ===== 用户管理 =====
 
     /**
-     * 根据token获取或创建游客用户
+     * 创建游客用户（令牌和昵称在保存时生成）
+     */
+    public UserEntity createGuest() {
+        return saveUser(new UserEntity());
+    }
+
+    /**
+     * 已识别用户的访问：记录最近访问时间并返回用户
      */
-    public UserEntity getOrCreateUser(String token) {
-        if (token != null && !token.isEmpty()) {
-            Optional<UserEntity> existing = userRepository.findByToken(token);
-            if (existing.isPresent()) {
-                UserEntity user = existing.get();
-                user.setLastVisit(LocalDateTime.now());
-                return userRepository.save(user);
+    public Optional<UserEntity> visitUser(Long userId) {
+        Optional<UserEntity> user = userRepository.findById(userId);
+        user.ifPresent(u -> recordVisit(u.getId()));
+        return user;
+    }
+
+    public void recordVisit(Long userId) {
+        lastVisitTracker.record(userId);
+    }
+
+    /**
+     * 用户概览：用户及收藏/购物车数量一次查询，订单按状态分组一次查询
+     */
+    public Optional<UserOverview> getUserOverview(Long userId) {
+        return userRepository.findWithCountsById(userId).map(counts -> {
+            Map<String, Long> orderCountByStatus = new LinkedHashMap<>();
+            double totalSpending = 0;
+            for (OrderStatusCount status : orderRepository.countByUserIdGroupByStatus(userId)) {
+                orderCountByStatus.put(status.getStatus(), status.getOrderCount());
+                if (!"cancelled".equals(status.getStatus())) {
+                    totalSpending += status.getTotalAmount();
+                }
             }
+            return new UserOverview(counts.getUser(), counts.getFavoriteCount(), counts.getCartCount(),
+                    orderCountByStatus, totalSpending);
+        });
+    }
+
+    // ===== 临时游客 =====
+
+    /**
+     * 签发临时游客令牌：g + 游客ID（UUID） + 签名，不写数据库
+     */
+    public String issueProvisionalToken() {
+        return userTokenIssuer.getSigner().sign(PROVISIONAL_PREFIX + UUID.randomUUID());
+    }
+
+    public static boolean isProvisionalToken(String token) {
+        return token != null && token.startsWith(PROVISIONAL_PREFIX);
+    }
+
+    /**
+     * 校验临时游客令牌
+     * @return 签名有效时返回游客ID，否则为空
+     */
+    public Optional<String> verifyProvisionalToken(String token) {
+        if (!isProvisionalToken(token)) {
+            return Optional.empty();
+        }
+        TokenSigner.Verified verified = userTokenIssuer.getSigner().verify(token);
+        return verified != null
+                ? Optional.of(verified.payload().substring(PROVISIONAL_PREFIX.length())) : Optional.empty();
+    }
+
+    /**
+     * 临时游客的昵称，与创建用户后的默认昵称一致
+     */
+    public static String guestNickname(String guestId) {
+        return "游客" + guestId.substring(0, 8);
+    }
+
+    /**
+     * 为临时游客创建用户记录：正式令牌即游客ID，同一游客并发创建时只保留一条
+     * @return 临时令牌无效时为空
+     */
+    public Optional<UserEntity> materializeGuest(String provisionalToken) {
+        Optional<String> guestId = verifyProvisionalToken(provisionalToken);
+        if (guestId.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<UserEntity> existing = userRepository.findByToken(guestId.get());
+        if (existing.isPresent()) {
+            return existing;
         }
-        // 创建新游客用户
         UserEntity user = new UserEntity();
-        if (token != null && !token.isEmpty()) {
-            user.setToken(token);
+        user.setToken(guestId.get());
+        try {
+            return Optional.of(saveUser(user));
+        } catch (DataIntegrityViolationException e) {
+            return userRepository.findByToken(guestId.get());
         }
-        return userRepository.save(user);
     }
 
     public Optional<UserEntity> getUserByToken(String token) {
         return userRepository.findByToken(token);
     }
 
+    /**
+     * 写入cookie的令牌：启用签名令牌时签发签名令牌，否则为数据库中的令牌
+     */
+    public String issueToken(UserEntity user) {
+        return userTokenIssuer.isEnabled() ? userTokenIssuer.issue(UserPrincipal.of(user)) : user.getToken();
+    }
+
+    /**
+     * 根据token解析用户身份
+     */
+    public Optional<UserPrincipal> resolvePrincipal(String token) {
+        return resolveToken(token).map(ResolvedToken::principal);
+    }
+
+    /**
+     * 根据token解析用户身份，并给出需要换发的令牌。
+     * 签名令牌只校验签名，需要刷新时按ID重新读取用户；
+     * 旧UUID令牌查询用户（优先读缓存），启用签名令牌时换发为签名令牌；临时游客为空
+     */
+    public Optional<ResolvedToken> resolveToken(String token) {
+        // 临时游客没有用户记录，无需查询
+        if (token == null || token.isEmpty() || isProvisionalToken(token)) {
+            return Optional.empty();
+        }
+        if (UserTokenIssuer.isUserToken(token)) {
+            UserTokenIssuer.Claims claims = userTokenIssuer.verify(token);
+            if (claims == null) {
+                return Optional.empty();
+            }
+            if (!claims.needsRefresh()) {
+                return Optional.of(new ResolvedToken(claims.principal(), null));
+            }
+            // 刷新时读取最新的类型和状态，用户已删除时令牌作废
+            return userRepository.findById(claims.principal().id())
+                    .map(UserPrincipal::of)
+                    .map(principal -> new ResolvedToken(principal, userTokenIssuer.issue(principal)));
+        }
+        return resolveLegacyPrincipal(token).map(principal -> new ResolvedToken(principal,
+                userTokenIssuer.isEnabled() ? userTokenIssuer.issue(principal) : null));
+    }
+
+    /**
+     * 根据数据库中的令牌解析用户身份（优先读缓存，未知token不缓存）
+     */
+    private Optional<UserPrincipal> resolveLegacyPrincipal(String token) {
+        UserPrincipal cached = principals.get(token);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<UserPrincipal> principal = userRepository.findByToken(token).map(UserPrincipal::of);
+        principal.ifPresent(p -> principals.put(token, p));
+        return principal;
+    }
+
     public Optional<UserEntity> getUserById(Long id) {
         return userRepository.findById(id);
     }
@@ -96,11 +259,20 @@ public class UserService {
     }
 
     public UserEntity saveUser(UserEntity user) {
-        return userRepository.save(user);
+        UserEntity saved = userRepository.save(user);
+        // 事务回滚时缓存不变，提交后再更新
+        UserPrincipal principal = UserPrincipal.of(saved);
+        principals.invalidate(saved.getToken());
+        TransactionHooks.afterCommit(() -> principals.put(saved.getToken(), principal));
+        return saved;
     }
 
     @Transactional
     public void deleteUser(Long id) {
+        userRepository.findById(id).ifPresent(user -> {
+            principals.invalidate(user.getToken());
+            TransactionHooks.afterCommit(() -> principals.invalidate(user.getToken()));
+        });
         // Cascade delete related data
         browsingHistoryRepository.deleteByUserId(id);
         favoriteRepository.deleteByUserId(id);
@@ -183,6 +355,15 @@ public class UserService {
      * 添加商品到购物车
      */
     public CartItemEntity addToCart(Long userId, ProductEntity product, String specName, Integer quantity) {
+        return addToCart(userId, product, specName, null, quantity);
+    }
+
+    /**
+     * 添加商品到购物车
+     * @param unitPrice 规格价格，为空时使用商品价格
+     */
+    public CartItemEntity addToCart(Long userId, ProductEntity product, String specName, Double unitPrice,
+                                    Integer quantity) {
         String spec = (specName != null) ? specName : "";
         int qty = (quantity != null && quantity >= 1) ? Math.min(quantity, 999) : 1;
         Optional<CartItemEntity> existing = cartItemRepository.findByUserIdAndProductIdAndSpecName(userId, product.getId(), spec);
@@ -198,7 +379,7 @@ public class UserService {
         item.setUserId(userId);
         item.setProductId(product.getId());
         item.setProductTitle(product.getTitle());
-        item.setProductPrice(product.getPrice());
+        item.setProductPrice(unitPrice != null ? unitPrice : product.getPrice());
         item.setProductImage(product.getFirstImageUrl());
         item.setSpecName(spec);
         item.setQuantity(qty);
@@ -225,6 +406,13 @@ public class UserService {
         }
     }
 
+    /**
+     * 批量删除购物车商品（一条DELETE语句），调用方需保证商品属于当前用户
+     */
+    public void removeCartItems(List<CartItemEntity> items) {
+        cartItemRepository.deleteAllInBatch(items);
+    }
+
     public List<CartItemEntity> getCartItems(Long userId) {
         return cartItemRepository.findByUserIdOrderByCreatedAtDesc(userId);
     }
@@ -0,0 +1,119 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.UserPrincipal;
+import com.crsp.mall.support.TokenSigner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * 用户令牌签发 - 签名令牌内嵌用户ID、类型、状态和签发时间：u{id}:{类型}:{1|0}:{签发秒}.密钥ID.签名，
+ * 校验只做HMAC运算，不查询数据库也不依赖共享缓存，多个无状态实例配置相同密钥即可互认。
+ * 令牌内的身份信息在刷新前以签发时为准：超过刷新间隔或由旧密钥签名的令牌
+ * 重新读取用户并换发，超过有效期的令牌作废。
+ */
+@Component
+public class UserTokenIssuer {
+
+    // 签名用户令牌前缀（旧令牌为UUID，临时游客令牌以g开头）
+    static final String USER_PREFIX = "u";
+
+    private final TokenSigner signer;
+
+    private final boolean enabled;
+
+    private final long maxAgeSeconds;
+
+    private final long refreshAfterSeconds;
+
+    private final LongSupplier clock;
+
+    /**
+     * 签名令牌校验结果
+     * @param principal 令牌中的用户身份
+     * @param needsRefresh 是否应重新读取用户并换发令牌
+     */
+    public record Claims(UserPrincipal principal, boolean needsRefresh) {}
+
+    @Autowired
+    public UserTokenIssuer(@Value("${app.user.token-keys:}") String keys,
+                           @Value("${app.user.signed-tokens.enabled:false}") boolean enabled,
+                           @Value("${app.user.signed-tokens.max-age-days:365}") long maxAgeDays,
+                           @Value("${app.user.signed-tokens.refresh-after-minutes:60}") long refreshAfterMinutes) {
+        this(TokenSigner.fromConfig(keys), enabled, Duration.ofDays(maxAgeDays),
+                Duration.ofMinutes(refreshAfterMinutes), System::currentTimeMillis);
+        // 随机密钥重启后失效，用户令牌已替换为签名令牌，会丢失身份
+        if (enabled && keys.isBlank()) {
+            throw new IllegalStateException("启用签名用户令牌时必须配置app.user.token-keys");
+        }
+    }
+
+    UserTokenIssuer(TokenSigner signer, boolean enabled, Duration maxAge, Duration refreshAfter, LongSupplier clock) {
+        this.signer = signer;
+        this.enabled = enabled;
+        this.maxAgeSeconds = maxAge.toSeconds();
+        this.refreshAfterSeconds = refreshAfter.toSeconds();
+        this.clock = clock;
+    }
+
+    /**
+     * 签名密钥（临时游客令牌也使用同一组密钥）
+     */
+    public TokenSigner getSigner() {
+        return signer;
+    }
+
+    /**
+     * 是否签发签名用户令牌（关闭时cookie中仍为数据库中的UUID令牌）
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isUserToken(String token) {
+        return token != null && token.startsWith(USER_PREFIX);
+    }
+
+    public String issue(UserPrincipal principal) {
+        return signer.sign(USER_PREFIX + principal.id() + ":" + principal.userType() + ":"
+                + (principal.active() ? 1 : 0) + ":" + nowSeconds());
+    }
+
+    /**
+     * 校验签名用户令牌
+     * @return 签名无效、格式错误或已过期时返回null
+     */
+    public Claims verify(String token) {
+        if (!isUserToken(token)) {
+            return null;
+        }
+        TokenSigner.Verified verified = signer.verify(token);
+        if (verified == null) {
+            return null;
+        }
+        String[] fields = verified.payload().substring(USER_PREFIX.length()).split(":");
+        if (fields.length != 4) {
+            return null;
+        }
+        long issuedAt;
+        UserPrincipal principal;
+        try {
+            principal = new UserPrincipal(Long.valueOf(fields[0]), fields[1], "1".equals(fields[2]));
+            issuedAt = Long.parseLong(fields[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        long age = nowSeconds() - issuedAt;
+        if (age > maxAgeSeconds) {
+            return null;
+        }
+        return new Claims(principal, age >= refreshAfterSeconds || !verified.currentKey());
+    }
+
+    private long nowSeconds() {
+        return clock.getAsLong() / 1000;
+    }
+}
@@ -0,0 +1,149 @@
+package com.crsp.mall.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 分组提交执行器 - 任务进入有界队列，由单个写线程按批取出，每批在一个事务中执行并只提交一次
+ * 批内任一任务抛出异常时整批回滚，再逐个在独立事务中重新执行，互不影响。
+ * 任务的结果在所在事务提交后才完成。
+ */
+public class GroupCommitExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitExecutor.class);
+
+    private static final class Task<T> {
+        final Supplier<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(Supplier<T> work) {
+            this.work = work;
+        }
+
+        Object run() {
+            return work.get();
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object value) {
+            result.complete((T) value);
+        }
+    }
+
+    private final BlockingQueue<Task<?>> queue;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int maxBatchSize;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    public GroupCommitExecutor(String name, TransactionTemplate transactionTemplate, int capacity, int maxBatchSize) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.transactionTemplate = transactionTemplate;
+        this.maxBatchSize = maxBatchSize;
+        this.writer = new Thread(this::drain, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 提交任务，队列已满或执行器已关闭时抛出RejectedExecutionException
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        if (!running) {
+            throw new RejectedExecutionException("分组提交执行器已关闭");
+        }
+        Task<T> task = new Task<>(work);
+        if (!queue.offer(task)) {
+            throw new RejectedExecutionException("分组提交队列已满");
+        }
+        // 入队期间执行器被关闭时写线程可能已退出：能从队列移除说明没有线程会执行它，直接拒绝；
+        // 移除失败说明写线程已取走，会执行或以已关闭完成
+        if (!running && queue.remove(task)) {
+            throw new RejectedExecutionException("分组提交执行器已关闭");
+        }
+        return task.result;
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * 停止接收任务，等待已入队的任务执行完毕
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        running = false;
+        writer.join(timeoutMillis);
+    }
+
+    private void drain() {
+        List<Task<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Task<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                execute(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) {
+                log.error("分组提交执行失败", e);
+                batch.forEach(task -> task.result.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            task.result.completeExceptionally(new RejectedExecutionException("分组提交执行器已关闭"));
+        }
+    }
+
+    private void execute(List<Task<?>> batch) {
+        List<Object> results;
+        try {
+            results = transactionTemplate.execute(status -> {
+                List<Object> values = new ArrayList<>(batch.size());
+                for (Task<?> task : batch) {
+                    values.add(task.run());
+                }
+                return values;
+            });
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            log.warn("分组提交失败，逐个重试{}个任务: {}", batch.size(), e.getMessage());
+            for (Task<?> task : batch) {
+                try {
+                    task.complete(transactionTemplate.execute(status -> task.run()));
+                } catch (RuntimeException single) {
+                    task.result.completeExceptionally(single);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(results.get(i));
+        }
+    }
+}
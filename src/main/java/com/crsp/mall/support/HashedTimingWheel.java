@@ -0,0 +1,129 @@
+package com.crsp.mall.support;
+
+import java.util.Arrays;
+
+/**
+ * 哈希时间轮 - 按到期时间把定时项散列到固定数量的槽位，添加为O(1)，
+ * 每次推进只扫描经过的槽位。定时项以基本类型数组保存（ID+到期时间，16字节），可容纳数百万项。
+ * 到期时间超过一圈的项留在槽位中，直到所在圈数到达才取出。
+ */
+public class HashedTimingWheel {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    private static final class Bucket {
+        long[] ids = new long[INITIAL_BUCKET_CAPACITY];
+        long[] ticks = new long[INITIAL_BUCKET_CAPACITY];
+        int size;
+
+        void add(long id, long tick) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                ticks = Arrays.copyOf(ticks, size * 2);
+            }
+            ids[size] = id;
+            ticks[size] = tick;
+            size++;
+        }
+    }
+
+    private final long tickMillis;
+
+    private final Bucket[] buckets;
+
+    private final int mask;
+
+    // 已处理到的tick（此前到期的项都已取出）
+    private long currentTick;
+
+    private int size;
+
+    private long[] expired = new long[64];
+
+    /**
+     * @param tickMillis 每个槽位的时间跨度（毫秒）
+     * @param wheelSize 槽位数量，向上取整为2的幂
+     * @param startMillis 起始时间（毫秒）
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis和wheelSize必须大于0");
+        }
+        int slots = 1;
+        while (slots < wheelSize) {
+            slots <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.buckets = new Bucket[slots];
+        for (int i = 0; i < slots; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = slots - 1;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * 添加定时项，已过期的项在下一次推进时取出；同一ID重复添加时会重复取出
+     */
+    public synchronized void schedule(long id, long deadlineMillis) {
+        long tick = Math.max(ceilTick(deadlineMillis), currentTick + 1);
+        buckets[(int) (tick & mask)].add(id, tick);
+        size++;
+    }
+
+    /**
+     * 推进到指定时间，返回期间到期的项ID
+     */
+    public synchronized long[] advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        if (target <= currentTick) {
+            return new long[0];
+        }
+        int count = 0;
+        // 经过的tick超过一圈时每个槽位只需扫描一次
+        long steps = Math.min(target - currentTick, buckets.length);
+        for (long tick = currentTick + 1; tick <= currentTick + steps; tick++) {
+            count = expire(buckets[(int) (tick & mask)], target, count);
+        }
+        currentTick = target;
+        size -= count;
+        long[] result = Arrays.copyOf(expired, count);
+        if (expired.length > 1024) {
+            expired = new long[64];
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 取出槽位中到期（tick不晚于target）的项追加到expired，其余项原地压缩
+     */
+    private int expire(Bucket bucket, long target, int count) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size; i++) {
+            if (bucket.ticks[i] <= target) {
+                if (count == expired.length) {
+                    expired = Arrays.copyOf(expired, count * 2);
+                }
+                expired[count++] = bucket.ids[i];
+            } else {
+                bucket.ids[kept] = bucket.ids[i];
+                bucket.ticks[kept] = bucket.ticks[i];
+                kept++;
+            }
+        }
+        bucket.size = kept;
+        if (kept == 0 && bucket.ids.length > INITIAL_BUCKET_CAPACITY) {
+            bucket.ids = new long[INITIAL_BUCKET_CAPACITY];
+            bucket.ticks = new long[INITIAL_BUCKET_CAPACITY];
+        }
+        return count;
+    }
+
+    private long ceilTick(long millis) {
+        return Math.floorDiv(millis + tickMillis - 1, tickMillis);
+    }
+}
@@ -0,0 +1,105 @@
+package com.crsp.mall.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 雪花ID生成器 - 64位ID = 41位毫秒时间戳 | 10位节点ID | 12位序号，无锁（CAS）生成。
+ * 同一节点生成的ID严格递增，不同节点（节点ID不同）之间不会重复，按时间大致有序，
+ * 作为唯一索引的键时新记录总是追加在索引末尾。
+ * 同一毫秒内序号用尽或系统时钟回拨时，在上次的时间戳上继续递增（借用后续毫秒），
+ * 超前系统时钟超过允许范围时拒绝生成。
+ */
+public final class SnowflakeIdGenerator {
+
+    // 时间戳起点：2024-01-01T00:00:00Z
+    public static final long EPOCH_MILLIS = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    // 默认允许超前系统时钟的最长时间
+    public static final long DEFAULT_MAX_BACKWARD_MILLIS = 5000;
+
+    // 每个节点ID在进程内只有一个生成器，避免两个实例在同一毫秒生成相同ID
+    private static final ConcurrentHashMap<Integer, SnowflakeIdGenerator> NODES = new ConcurrentHashMap<>();
+
+    private static volatile int defaultNodeId;
+
+    private final long nodeBits;
+
+    private final long maxBackwardMillis;
+
+    private final LongSupplier clock;
+
+    // 上次生成的（相对时间戳 << 序号位数 | 序号）
+    private final AtomicLong last = new AtomicLong();
+
+    SnowflakeIdGenerator(int nodeId, long maxBackwardMillis, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("节点ID必须在0到" + MAX_NODE_ID + "之间: " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.maxBackwardMillis = maxBackwardMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * 获取指定节点的生成器（进程内单例）
+     */
+    public static SnowflakeIdGenerator forNode(int nodeId) {
+        return NODES.computeIfAbsent(nodeId,
+                id -> new SnowflakeIdGenerator(id, DEFAULT_MAX_BACKWARD_MILLIS, System::currentTimeMillis));
+    }
+
+    /**
+     * 设置本进程的节点ID（多实例部署时每个实例必须不同）
+     */
+    public static void setDefaultNodeId(int nodeId) {
+        forNode(nodeId);
+        defaultNodeId = nodeId;
+    }
+
+    /**
+     * 获取本进程节点的生成器，供实体在持久化前生成编号
+     */
+    public static SnowflakeIdGenerator getDefault() {
+        return forNode(defaultNodeId);
+    }
+
+    public long nextId() {
+        while (true) {
+            long prev = last.get();
+            long now = clock.getAsLong() - EPOCH_MILLIS;
+            long next = now << SEQUENCE_BITS;
+            if (next <= prev) {
+                // 同一毫秒内或时钟回拨：沿用上次的时间戳递增序号，序号用尽时进位到下一毫秒
+                long ahead = (prev >>> SEQUENCE_BITS) - now;
+                if (ahead > maxBackwardMillis) {
+                    throw new IllegalStateException("系统时钟回拨" + ahead + "ms，暂停生成ID");
+                }
+                next = prev + 1;
+            }
+            if (last.compareAndSet(prev, next)) {
+                return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * ID中的生成时间（毫秒）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    public static int nodeIdOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+}
@@ -0,0 +1,129 @@
+package com.crsp.mall.support;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 令牌签名 - 令牌格式为 内容.密钥ID.签名（HMAC-SHA256，Base64URL），校验签名无需查询数据库。
+ * 支持密钥轮换：用当前密钥签名，当前密钥和保留的旧密钥都可校验，
+ * 多个实例配置相同密钥时可互相校验对方签发的令牌。
+ */
+public class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    // 未配置密钥时随机生成的密钥ID
+    static final String RANDOM_KEY_ID = "r";
+
+    private final String currentKeyId;
+
+    private final Map<String, SecretKeySpec> keys = new LinkedHashMap<>();
+
+    /**
+     * 签名校验结果
+     * @param payload 令牌内容
+     * @param currentKey 是否由当前密钥签名（否则为轮换前的旧密钥，应换发新令牌）
+     */
+    public record Verified(String payload, boolean currentKey) {}
+
+    /**
+     * @param secrets 密钥ID -> 密钥，按顺序第一个为当前签名密钥
+     */
+    public TokenSigner(Map<String, byte[]> secrets) {
+        if (secrets.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个签名密钥");
+        }
+        for (Map.Entry<String, byte[]> secret : secrets.entrySet()) {
+            String keyId = secret.getKey();
+            if (keyId.isEmpty() || keyId.contains(".")) {
+                throw new IllegalArgumentException("密钥ID不能为空或包含\".\": " + keyId);
+            }
+            keys.put(keyId, new SecretKeySpec(secret.getValue(), ALGORITHM));
+        }
+        this.currentKeyId = keys.keySet().iterator().next();
+    }
+
+    /**
+     * 从配置创建：格式为 密钥ID:密钥,密钥ID:密钥，第一个为当前密钥，其余为轮换前保留的旧密钥。
+     * 未配置时每次启动随机生成（重启后已签发的令牌失效，仅适用于单实例）
+     */
+    public static TokenSigner fromConfig(String spec) {
+        Map<String, byte[]> secrets = new LinkedHashMap<>();
+        if (spec != null) {
+            for (String entry : spec.split(",")) {
+                if (entry.isBlank()) {
+                    continue;
+                }
+                int colon = entry.indexOf(':');
+                if (colon <= 0 || colon == entry.length() - 1) {
+                    throw new IllegalArgumentException("签名密钥格式应为 密钥ID:密钥");
+                }
+                secrets.put(entry.substring(0, colon).trim(),
+                        entry.substring(colon + 1).trim().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (secrets.isEmpty()) {
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            secrets.put(RANDOM_KEY_ID, random);
+        }
+        return new TokenSigner(secrets);
+    }
+
+    public String getCurrentKeyId() {
+        return currentKeyId;
+    }
+
+    /**
+     * 用当前密钥为内容签名，内容中不能包含"."
+     */
+    public String sign(String payload) {
+        String signed = payload + "." + currentKeyId;
+        return signed + "." + mac(keys.get(currentKeyId), signed);
+    }
+
+    /**
+     * 校验令牌签名（常量时间比较）
+     * @return 签名有效时返回内容，格式错误、密钥未知或签名不符时返回null
+     */
+    public Verified verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int macDot = token.lastIndexOf('.');
+        int keyDot = macDot > 0 ? token.lastIndexOf('.', macDot - 1) : -1;
+        if (keyDot <= 0) {
+            return null;
+        }
+        String keyId = token.substring(keyDot + 1, macDot);
+        SecretKeySpec key = keys.get(keyId);
+        if (key == null) {
+            return null;
+        }
+        String signed = token.substring(0, macDot);
+        byte[] expected = mac(key, signed).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(macDot + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return null;
+        }
+        return new Verified(token.substring(0, keyDot), currentKeyId.equals(keyId));
+    }
+
+    private static String mac(SecretKeySpec key, String signed) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            byte[] digest = mac.doFinal(signed.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("令牌签名失败", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.crsp.mall.config;
+
+import com.crsp.mall.service.CatalogChangedEvent;
+import com.crsp.mall.service.ProductStockChangedEvent;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PageCacheFilterTest {
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private final PageCacheFilter filter = new PageCacheFilter(true, 100, 300);
+
+    private MockHttpServletResponse perform(String path, String... params) throws Exception {
+        return perform(path, new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType("text/html;charset=UTF-8");
+                resp.getWriter().write("<html>page " + renders.incrementAndGet() + "</html>");
+            }
+        }, params);
+    }
+
+    private MockHttpServletResponse perform(String path, HttpServlet servlet, String... params) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            request.addParameter(params[i], params[i + 1]);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(servlet));
+        return response;
+    }
+
+    @Test
+    void servesRepeatedRequestsFromCacheWithNormalizedParameters() throws Exception {
+        MockHttpServletResponse first = perform("/search", "keyword", "按摩", "page", "");
+        MockHttpServletResponse second = perform("/search", "keyword", " 按摩 ");
+
+        assertThat(first.getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("MISS");
+        assertThat(second.getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("HIT");
+        assertThat(second.getContentAsString()).isEqualTo(first.getContentAsString());
+        assertThat(second.getContentType()).startsWith("text/html");
+        assertThat(renders.get()).isEqualTo(1);
+    }
+
+    @Test
+    void keysPagesOnlyByTheParametersTheyRead() throws Exception {
+        perform("/", "utm_source", "a");
+        MockHttpServletResponse home = perform("/", "utm_source", "b", "ref", "x");
+        perform("/search", "keyword", "按摩", "cursor", "abc");
+        MockHttpServletResponse search = perform("/search", "keyword", "按摩", "utm_source", "b");
+        MockHttpServletResponse other = perform("/search", "keyword", "茶");
+
+        assertThat(home.getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("HIT");
+        assertThat(search.getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("HIT");
+        assertThat(other.getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("MISS");
+        assertThat(renders.get()).isEqualTo(3);
+    }
+
+    @Test
+    void ignoresUncachedPaths() throws Exception {
+        perform("/cart");
+        MockHttpServletResponse response = perform("/cart");
+
+        assertThat(response.getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isNull();
+        assertThat(renders.get()).isEqualTo(2);
+    }
+
+    @Test
+    void catalogChangesInvalidateAffectedPages() throws Exception {
+        perform("/");
+        perform("/product/1");
+        perform("/product/2");
+
+        filter.onCatalogChanged(new CatalogChangedEvent(2, 1L, false));
+        assertThat(perform("/").getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("HIT");
+        assertThat(perform("/product/2").getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("HIT");
+        assertThat(perform("/product/1").getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("MISS");
+
+        filter.onCatalogChanged(new CatalogChangedEvent(3, 2L, true));
+        assertThat(filter.size()).isZero();
+        assertThat(perform("/").getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("MISS");
+    }
+
+    @Test
+    void skuStockChangesOnlyInvalidateProductPage() throws Exception {
+        perform("/search", "keyword", "手机");
+        perform("/product/1");
+
+        filter.onProductStockChanged(new ProductStockChangedEvent(1L));
+        assertThat(perform("/search", "keyword", "手机").getHeader(PageCacheFilter.CACHE_STATUS_HEADER))
+                .isEqualTo("HIT");
+        assertThat(perform("/product/1").getHeader(PageCacheFilter.CACHE_STATUS_HEADER)).isEqualTo("MISS");
+    }
+
+    @Test
+    void doesNotCacheRedirects() throws Exception {
+        HttpServlet redirect = new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                renders.incrementAndGet();
+                resp.sendRedirect("/");
+            }
+        };
+        perform("/product/99", redirect);
+        MockHttpServletResponse response = perform("/product/99", redirect);
+
+        assertThat(response.getRedirectedUrl()).isEqualTo("/");
+        assertThat(renders.get()).isEqualTo(2);
+        assertThat(filter.size()).isZero();
+    }
+
+    @Test
+    void concurrentMissesRenderOnlyOnce() throws Exception {
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServlet slow = new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                renders.incrementAndGet();
+                rendering.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resp.setContentType("text/html;charset=UTF-8");
+                resp.getWriter().write("<html>home</html>");
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<MockHttpServletResponse> leader = executor.submit(() -> perform("/", slow));
+            assertThat(rendering.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<MockHttpServletResponse> follower1 = executor.submit(() -> perform("/", slow));
+            Future<MockHttpServletResponse> follower2 = executor.submit(() -> perform("/", slow));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertThat(leader.get(5, TimeUnit.SECONDS).getContentAsString()).isEqualTo("<html>home</html>");
+            assertThat(follower1.get(5, TimeUnit.SECONDS).getContentAsString()).isEqualTo("<html>home</html>");
+            assertThat(follower2.get(5, TimeUnit.SECONDS).getContentAsString()).isEqualTo("<html>home</html>");
+            assertThat(renders.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,17 +1,30 @@
 package com.crsp.mall.controller;
 
+import com.crsp.mall.entity.ProductCard;
 import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.service.CatalogSnapshot;
 import com.crsp.mall.service.ProductDbService;
+import com.crsp.mall.service.ProductPage;
+import com.crsp.mall.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -24,6 +37,10 @@ class ApiControllerTest {
     @MockBean
     private ProductDbService productDbService;
 
+    // 用户接口拦截器的依赖
+    @MockBean
+    private UserService userService;
+
     @Test
     void getProductReturnsNotFoundWhenMissing() throws Exception {
         given(productDbService.getProductById(42L)).willReturn(Optional.empty());
@@ -39,11 +56,86 @@ class ApiControllerTest {
         product.setId(1L);
         product.setTitle("测试商品");
         product.setPrice(128.0);
+        ReflectionTestUtils.setField(product, "sales", "已售 2.3万件");
         given(productDbService.getProductById(1L)).willReturn(Optional.of(product));
 
         mockMvc.perform(get("/api/products/1"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id").value(1L))
-                .andExpect(jsonPath("$.title").value("测试商品"));
+                .andExpect(jsonPath("$.title").value("测试商品"))
+                .andExpect(jsonPath("$.legacySales").doesNotExist());
+    }
+
+    @Test
+    void getAllProductsReturnsCursorPage() throws Exception {
+        ProductCard product = new ProductCard(1L, "测试商品", 128.0, 256.0, 10L,
+                null, null, "新品", "/uploads/a.jpg", null, null);
+        CatalogSnapshot catalog = CatalogSnapshot.of(1, List.of(product));
+        given(productDbService.getCatalog()).willReturn(catalog);
+        given(productDbService.getActiveProductPage(catalog, null, null, null))
+                .willReturn(new ProductPage<>(List.of(product), "next", 21));
+
+        mockMvc.perform(get("/api/products"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id").value(1L))
+                .andExpect(jsonPath("$.items[0].firstImageUrl").value("/uploads/a.jpg"))
+                .andExpect(jsonPath("$.items[0].displayMedia").doesNotExist())
+                .andExpect(jsonPath("$.nextCursor").value("next"))
+                .andExpect(jsonPath("$.hasMore").value(true))
+                .andExpect(jsonPath("$.total").value(21));
+    }
+
+    @Test
+    void getAllProductsRejectsInvalidCursor() throws Exception {
+        CatalogSnapshot catalog = CatalogSnapshot.of(1, List.of());
+        given(productDbService.getCatalog()).willReturn(catalog);
+        given(productDbService.getActiveProductPage(catalog, "bad", null, null))
+                .willThrow(new IllegalArgumentException("无效的分页游标"));
+
+        mockMvc.perform(get("/api/products").param("cursor", "bad"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("无效的分页游标"));
+    }
+
+    @Test
+    void getAllProductsReturnsNotModifiedForCurrentCatalogETag() throws Exception {
+        CatalogSnapshot catalog = CatalogSnapshot.of(3, List.of());
+        given(productDbService.getCatalog()).willReturn(catalog);
+        given(productDbService.getActiveProductPage(catalog, null, null, null))
+                .willReturn(new ProductPage<>(List.of(), null, 0));
+
+        mockMvc.perform(get("/api/products"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", catalog.getETag()))
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(header().exists("Last-Modified"));
+
+        clearInvocations(productDbService);
+        mockMvc.perform(get("/api/products").header("If-None-Match", catalog.getETag()))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        // 304时不构建分页
+        verify(productDbService, never()).getActiveProductPage(any(), any(), any(), any());
+    }
+
+    @Test
+    void getProductRevalidatesActiveProductWithoutDatabase() throws Exception {
+        LocalDateTime updatedAt = LocalDateTime.of(2024, 5, 1, 12, 0);
+        ProductEntity product = new ProductEntity();
+        product.setId(1L);
+        product.setTitle("测试商品");
+        product.setUpdatedAt(updatedAt);
+        given(productDbService.getProductLastModified(1L)).willReturn(Optional.of(updatedAt));
+        given(productDbService.getProductById(1L)).willReturn(Optional.of(product));
+
+        String etag = mockMvc.perform(get("/api/products/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("Last-Modified"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        clearInvocations(productDbService);
+        mockMvc.perform(get("/api/products/1").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        verify(productDbService, never()).getProductById(any());
     }
 }
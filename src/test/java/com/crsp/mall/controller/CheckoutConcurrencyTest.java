@@ -0,0 +1,172 @@
+package com.crsp.mall.controller;
+
+import com.crsp.mall.entity.OrderEntity;
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.entity.UserEntity;
+import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.repository.ProductRepository;
+import com.crsp.mall.service.ProductDbService;
+import com.crsp.mall.service.UserService;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * 并发下单：购物车商品重叠且顺序不同时库存扣减不超卖、不死锁；同一幂等键只下单一次
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class CheckoutConcurrencyTest {
+
+    private static final int CHECKOUTS = 200;
+    private static final int STOCK = 50;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    private final List<Long> productIds = new ArrayList<>();
+
+    private final List<Long> userIds = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        for (Long userId : userIds) {
+            orderRepository.deleteAll(orderRepository.findByUserIdOrderByCreatedAtDesc(userId));
+            userService.deleteUser(userId);
+        }
+        productIds.forEach(productDbService::deleteProduct);
+    }
+
+    @Test
+    void overlappingCartsNeverOversellOrDeadlock() throws Exception {
+        List<ProductEntity> products = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("并发商品" + i);
+            product.setPrice(10.0);
+            product.setStock(STOCK);
+            product.setActive(true);
+            product = productDbService.saveProduct(product);
+            products.add(product);
+            productIds.add(product.getId());
+        }
+        // 每个用户购物车包含全部三个商品，加入顺序各不相同
+        List<Cookie> cookies = new ArrayList<>();
+        for (int i = 0; i < CHECKOUTS; i++) {
+            UserEntity user = userService.createGuest();
+            userIds.add(user.getId());
+            for (int j = 0; j < products.size(); j++) {
+                userService.addToCart(user.getId(), products.get((i + j) % products.size()), null, 1);
+            }
+            cookies.add(new Cookie("user_token", user.getToken()));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<Integer>> statuses = new ArrayList<>();
+        for (Cookie cookie : cookies) {
+            statuses.add(executor.submit(() -> mockMvc.perform(post("/api/user/checkout").cookie(cookie)
+                            .contentType("application/json")
+                            .content("{\"userName\":\"测试\",\"userPhone\":\"13800138000\",\"shippingAddress\":\"测试地址\"}"))
+                    .andReturn().getResponse().getStatus()));
+        }
+        int succeeded = 0;
+        for (Future<Integer> status : statuses) {
+            int code = status.get(60, TimeUnit.SECONDS);
+            assertThat(code).isIn(200, 400);
+            if (code == 200) {
+                succeeded++;
+            }
+        }
+        executor.shutdown();
+
+        assertThat(succeeded).isEqualTo(STOCK);
+        for (Long productId : productIds) {
+            assertThat(productRepository.findStock(productId)).isZero();
+        }
+        long orders = 0;
+        for (Long userId : userIds) {
+            List<OrderEntity> userOrders = orderRepository.findByUserIdOrderByCreatedAtDesc(userId);
+            orders += userOrders.size();
+        }
+        assertThat(orders).isEqualTo(STOCK);
+    }
+
+    @Test
+    void duplicateSubmissionsWithSameIdempotencyKeyCreateOneOrder() throws Exception {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("幂等商品");
+        product.setPrice(10.0);
+        product.setStock(STOCK);
+        product.setActive(true);
+        product = productDbService.saveProduct(product);
+        productIds.add(product.getId());
+        UserEntity user = userService.createGuest();
+        userIds.add(user.getId());
+        userService.addToCart(user.getId(), product, null, 2);
+        Cookie cookie = new Cookie("user_token", user.getToken());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<MockHttpServletResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(executor.submit(() -> mockMvc.perform(post("/api/user/checkout").cookie(cookie)
+                            .header("Idempotency-Key", "order-1")
+                            .contentType("application/json")
+                            .content("{\"userName\":\"测试\",\"userPhone\":\"13800138000\",\"shippingAddress\":\"测试地址\"}"))
+                    .andReturn().getResponse()));
+        }
+        Set<String> bodies = new HashSet<>();
+        int replayed = 0;
+        for (Future<MockHttpServletResponse> response : responses) {
+            MockHttpServletResponse result = response.get(60, TimeUnit.SECONDS);
+            assertThat(result.getStatus()).isEqualTo(200);
+            bodies.add(result.getContentAsString());
+            if ("true".equals(result.getHeader("Idempotent-Replayed"))) {
+                replayed++;
+            }
+        }
+        executor.shutdown();
+
+        // 购物车已清空，重放仍返回原订单
+        MockHttpServletResponse replay = mockMvc.perform(post("/api/user/checkout").cookie(cookie)
+                        .header("Idempotency-Key", "order-1")
+                        .contentType("application/json")
+                        .content("{\"userName\":\"测试\",\"userPhone\":\"13800138000\",\"shippingAddress\":\"测试地址\"}"))
+                .andReturn().getResponse();
+        bodies.add(replay.getContentAsString());
+
+        assertThat(bodies).hasSize(1);
+        assertThat(replayed).isEqualTo(7);
+        assertThat(replay.getHeader("Idempotent-Replayed")).isEqualTo("true");
+        assertThat(orderRepository.findByUserIdOrderByCreatedAtDesc(user.getId())).hasSize(1);
+        assertThat(productRepository.findStock(product.getId())).isEqualTo(STOCK - 2);
+    }
+}
@@ -0,0 +1,10 @@
+package com.crsp.mall.controller;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * 开启下单队列（分组提交）时重复并发下单测试：结果与逐个提交一致
+ */
+@SpringBootTest(properties = "app.checkout.intake.enabled=true")
+class CheckoutIntakeConcurrencyTest extends CheckoutConcurrencyTest {
+}
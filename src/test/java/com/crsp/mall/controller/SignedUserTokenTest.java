@@ -0,0 +1,55 @@
+package com.crsp.mall.controller;
+
+import com.crsp.mall.entity.UserEntity;
+import com.crsp.mall.service.UserService;
+import com.crsp.mall.service.UserTokenIssuer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.servlet.http.Cookie;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "app.user.token-keys=test:test-token-secret",
+        "app.user.signed-tokens.enabled=true"
+})
+@AutoConfigureMockMvc
+@Transactional
+class SignedUserTokenTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void legacyTokenIsUpgradedToSignedTokenResolvedWithoutLookup() throws Exception {
+        UserEntity user = userService.createGuest();
+        Cookie legacy = new Cookie("user_token", user.getToken());
+
+        Cookie signed = mockMvc.perform(get("/api/user/cart").cookie(legacy))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getCookie("user_token");
+        assertTrue(UserTokenIssuer.isUserToken(signed.getValue()));
+
+        // 签名令牌未过刷新间隔时不换发，直接由令牌识别用户
+        mockMvc.perform(get("/api/user/info").cookie(signed))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(user.getId()))
+                .andExpect(cookie().doesNotExist("user_token"));
+
+        Cookie forged = new Cookie("user_token", signed.getValue().replaceFirst("^u\\d+", "u" + (user.getId() + 1)));
+        mockMvc.perform(get("/api/user/info").cookie(forged))
+                .andExpect(jsonPath("$.error").value("用户未初始化"));
+    }
+}
@@ -1,8 +1,11 @@
 package com.crsp.mall.controller;
 
 import com.crsp.mall.entity.OrderEntity;
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.entity.ProductEntity;
 import com.crsp.mall.entity.UserEntity;
 import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.service.ProductDbService;
 import com.crsp.mall.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,9 +16,14 @@ import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.servlet.http.Cookie;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -33,9 +41,12 @@ class UserApiControllerTest {
     @Autowired
     private OrderRepository orderRepository;
 
+    @Autowired
+    private ProductDbService productDbService;
+
     @Test
     void cancelOrderRejectNonPendingOrder() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         OrderEntity order = new OrderEntity();
@@ -52,7 +63,7 @@ class UserApiControllerTest {
 
     @Test
     void cancelOrderSucceedsForPendingOrder() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         OrderEntity order = new OrderEntity();
@@ -69,8 +80,8 @@ class UserApiControllerTest {
 
     @Test
     void cancelOrderRejectsOtherUsersOrder() throws Exception {
-        UserEntity user1 = userService.getOrCreateUser(null);
-        UserEntity user2 = userService.getOrCreateUser(null);
+        UserEntity user1 = userService.createGuest();
+        UserEntity user2 = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user2.getToken());
 
         OrderEntity order = new OrderEntity();
@@ -87,7 +98,7 @@ class UserApiControllerTest {
 
     @Test
     void confirmOrderSucceedsForShippedOrder() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         OrderEntity order = new OrderEntity();
@@ -104,7 +115,7 @@ class UserApiControllerTest {
 
     @Test
     void confirmOrderRejectsNonShippedOrder() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         OrderEntity order = new OrderEntity();
@@ -121,7 +132,7 @@ class UserApiControllerTest {
 
     @Test
     void updateProfileSucceedsWithValidData() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         mockMvc.perform(put("/api/user/info").cookie(cookie)
@@ -133,7 +144,7 @@ class UserApiControllerTest {
 
     @Test
     void updateProfileRejectsInvalidPhone() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         mockMvc.perform(put("/api/user/info").cookie(cookie)
@@ -145,7 +156,7 @@ class UserApiControllerTest {
 
     @Test
     void updateProfileRejectsInvalidEmail() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         mockMvc.perform(put("/api/user/info").cookie(cookie)
@@ -157,7 +168,7 @@ class UserApiControllerTest {
 
     @Test
     void updateProfileRejectsEmptyNickname() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         mockMvc.perform(put("/api/user/info").cookie(cookie)
@@ -169,7 +180,7 @@ class UserApiControllerTest {
 
     @Test
     void updateProfileSavesAddress() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         mockMvc.perform(put("/api/user/info").cookie(cookie)
@@ -181,7 +192,7 @@ class UserApiControllerTest {
 
     @Test
     void updateProfileRejectsTooLongAddress() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         String longAddress = "a".repeat(501);
@@ -194,7 +205,7 @@ class UserApiControllerTest {
 
     @Test
     void getUserInfoReturnsEnhancedData() throws Exception {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Cookie cookie = new Cookie("user_token", user.getToken());
 
         mockMvc.perform(get("/api/user/info").cookie(cookie))
@@ -214,4 +225,161 @@ class UserApiControllerTest {
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.error").value("用户未登录"));
     }
+
+    @Test
+    void recommendationsAreAvailableWithoutUserCookie() throws Exception {
+        mockMvc.perform(get("/api/user/recommendations").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isArray())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].displayMedia").doesNotExist());
+    }
+
+    @Test
+    void removingCartItemInvalidatesRecommendations() throws Exception {
+        UserEntity user = userService.createGuest();
+        Cookie cookie = new Cookie("user_token", user.getToken());
+        int catalogSize = productDbService.getActiveProducts().size();
+        ProductEntity product = productDbService.getProductById(productDbService.getActiveProducts().get(0).id())
+                .orElseThrow();
+        Long itemId = userService.addToCart(user.getId(), product, null, 1).getId();
+
+        // 已加购的商品不推荐
+        mockMvc.perform(get("/api/user/recommendations").param("limit", String.valueOf(catalogSize)).cookie(cookie))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.id == " + product.getId() + ")]").isEmpty());
+
+        mockMvc.perform(delete("/api/user/cart/" + itemId).cookie(cookie))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/user/recommendations").param("limit", String.valueOf(catalogSize)).cookie(cookie))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.id == " + product.getId() + ")]").isNotEmpty());
+    }
+
+    @Test
+    void checkoutRejectsQuantityAboveStock() throws Exception {
+        UserEntity user = userService.createGuest();
+        Cookie cookie = new Cookie("user_token", user.getToken());
+        ProductCard card = productDbService.getActiveProducts().get(0);
+        ProductEntity product = productDbService.getProductById(card.id()).orElseThrow();
+        userService.addToCart(user.getId(), product, null, product.getStock() + 1);
+
+        mockMvc.perform(post("/api/user/checkout").cookie(cookie)
+                .contentType("application/json")
+                .content("{\"userName\":\"测试\",\"userPhone\":\"13800138000\",\"shippingAddress\":\"测试地址\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value(
+                        "商品 \"" + product.getTitle() + "\" 库存不足，当前库存: " + product.getStock()));
+    }
+
+    @Test
+    void ordersIncludeLineItemsWithPriceSnapshot() throws Exception {
+        UserEntity user = userService.createGuest();
+        Cookie cookie = new Cookie("user_token", user.getToken());
+        ProductCard card = productDbService.getActiveProducts().get(0);
+        ProductEntity product = productDbService.getProductById(card.id()).orElseThrow();
+        userService.addToCart(user.getId(), product, null, 2);
+
+        mockMvc.perform(post("/api/user/checkout").cookie(cookie)
+                .contentType("application/json")
+                .content("{\"userName\":\"测试\",\"userPhone\":\"13800138000\",\"shippingAddress\":\"测试地址\"}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/user/orders").cookie(cookie))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].items.length()").value(1))
+                .andExpect(jsonPath("$[0].items[0].productId").value(product.getId()))
+                .andExpect(jsonPath("$[0].items[0].productTitle").value(product.getTitle()))
+                .andExpect(jsonPath("$[0].items[0].quantity").value(2))
+                .andExpect(jsonPath("$[0].items[0].unitPrice").value(product.getPrice()));
+    }
+
+    @Test
+    void provisionalGuestIsCreatedOnlyOnFirstStatefulAction() throws Exception {
+        long usersBefore = userService.getUserCount();
+        Cookie provisional = mockMvc.perform(post("/api/user/init"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.userType").value("guest"))
+                .andReturn().getResponse().getCookie("user_token");
+        assertTrue(UserService.isProvisionalToken(provisional.getValue()));
+        assertEquals(usersBefore, userService.getUserCount());
+
+        mockMvc.perform(get("/api/user/cart").cookie(provisional))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        mockMvc.perform(get("/api/user/info").cookie(provisional))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cartCount").value(0))
+                .andExpect(jsonPath("$.level").value("新用户"));
+        assertEquals(usersBefore, userService.getUserCount());
+
+        Long productId = productDbService.getActiveProducts().get(0).id();
+        Cookie materialized = mockMvc.perform(post("/api/user/favorite/" + productId).cookie(provisional))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getCookie("user_token");
+        assertFalse(UserService.isProvisionalToken(materialized.getValue()));
+        assertEquals(usersBefore + 1, userService.getUserCount());
+
+        // 旧的临时令牌（如并发请求）映射到同一个用户
+        mockMvc.perform(post("/api/user/history/" + productId).cookie(provisional))
+                .andExpect(status().isOk());
+        assertEquals(usersBefore + 1, userService.getUserCount());
+    }
+
+    @Test
+    void legacyTokenIsKeptWhenSignedTokensAreDisabled() throws Exception {
+        UserEntity user = userService.createGuest();
+
+        mockMvc.perform(get("/api/user/info").cookie(new Cookie("user_token", user.getToken())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(user.getId()))
+                .andExpect(cookie().doesNotExist("user_token"));
+    }
+
+    @Test
+    void bootstrapReturnsProfileCountsAndOrderStatusCounts() throws Exception {
+        UserEntity user = userService.createGuest();
+        Cookie cookie = new Cookie("user_token", user.getToken());
+        ProductCard card = productDbService.getActiveProducts().get(0);
+        ProductEntity product = productDbService.getProductById(card.id()).orElseThrow();
+        userService.addToCart(user.getId(), product, null, 1);
+        userService.toggleFavorite(user.getId(), product);
+        for (String status : new String[] {"pending", "pending", "shipped", "cancelled"}) {
+            OrderEntity order = new OrderEntity();
+            order.setUserId(user.getId());
+            order.setUserName("测试");
+            order.setTotalAmount(600.0);
+            order.setStatus(status);
+            orderRepository.save(order);
+        }
+
+        mockMvc.perform(get("/api/user/bootstrap").cookie(cookie))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(user.getId()))
+                .andExpect(jsonPath("$.nickname").value(user.getNickname()))
+                .andExpect(jsonPath("$.favoriteCount").value(1))
+                .andExpect(jsonPath("$.cartCount").value(1))
+                .andExpect(jsonPath("$.orderCount").value(4))
+                .andExpect(jsonPath("$.orderStatusCounts.pending").value(2))
+                .andExpect(jsonPath("$.orderStatusCounts.shipped").value(1))
+                .andExpect(jsonPath("$.orderStatusCounts.cancelled").value(1))
+                .andExpect(jsonPath("$.totalSpending").value(1800.0))
+                .andExpect(jsonPath("$.level").value("银牌会员"));
+    }
+
+    @Test
+    void bootstrapIssuesProvisionalGuestWithoutCreatingUser() throws Exception {
+        long usersBefore = userService.getUserCount();
+
+        Cookie provisional = mockMvc.perform(get("/api/user/bootstrap"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.userType").value("guest"))
+                .andExpect(jsonPath("$.cartCount").value(0))
+                .andExpect(jsonPath("$.orderStatusCounts").isEmpty())
+                .andReturn().getResponse().getCookie("user_token");
+
+        assertTrue(UserService.isProvisionalToken(provisional.getValue()));
+        assertEquals(usersBefore, userService.getUserCount());
+    }
 }
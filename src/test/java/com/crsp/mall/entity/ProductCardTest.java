@@ -0,0 +1,38 @@
+package com.crsp.mall.entity;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductCardTest {
+
+    @Test
+    void cardPrecomputesFirstMediaUrls() {
+        ProductEntity product = new ProductEntity();
+        product.setId(7L);
+        product.setTitle("测试商品");
+        product.setPrice(99.0);
+        product.setDisplayMedia("[{\"type\":\"video\",\"url\":\"/uploads/v.mp4\"},"
+                + "{\"type\":\"image\",\"url\":\"/uploads/a.jpg\"}]");
+
+        ProductCard card = ProductCard.of(product);
+
+        assertThat(card.id()).isEqualTo(7L);
+        assertThat(card.firstImageUrl()).isEqualTo("/uploads/a.jpg");
+        assertThat(card.firstVideoUrl()).isEqualTo("/uploads/v.mp4");
+        assertThat(card.hasDisplayMedia()).isTrue();
+    }
+
+    @Test
+    void cardWithoutMediaHasNoDisplayMedia() {
+        ProductEntity product = new ProductEntity();
+        product.setId(8L);
+        product.setTitle("无图商品");
+        product.setDisplayMedia("not-json");
+
+        ProductCard card = ProductCard.of(product);
+
+        assertThat(card.firstImageUrl()).isNull();
+        assertThat(card.hasDisplayMedia()).isFalse();
+    }
+}
@@ -25,4 +25,42 @@ class ProductEntityTest {
         assertThat(product.isLowStock()).isFalse();
         assertThat(product.getStockStatus()).isEqualTo("已售完");
     }
+
+    @Test
+    void settingDisplayMediaDerivesMediaSummary() {
+        ProductEntity product = new ProductEntity();
+        product.setDisplayMedia("[{\"type\":\"video\",\"url\":\"/uploads/v.mp4\"},"
+                + "{\"type\":\"image\",\"url\":\"/uploads/a.jpg\"},"
+                + "{\"type\":\"image\",\"url\":\"/uploads/b.jpg\"}]");
+
+        assertThat(product.getFirstImageUrl()).isEqualTo("/uploads/a.jpg");
+        assertThat(product.getFirstVideoUrl()).isEqualTo("/uploads/v.mp4");
+        assertThat(product.getMediaCount()).isEqualTo(3);
+        assertThat(product.hasDisplayMedia()).isTrue();
+        assertThat(product.getDisplayMediaItems())
+                .extracting(MediaItem::url)
+                .containsExactly("/uploads/v.mp4", "/uploads/a.jpg", "/uploads/b.jpg");
+
+        product.setDisplayMedia("not-json");
+        assertThat(product.getFirstImageUrl()).isNull();
+        assertThat(product.getMediaCount()).isZero();
+        assertThat(product.hasDisplayMedia()).isFalse();
+    }
+
+    @Test
+    void salesTextIsDerivedFromSoldCount() {
+        assertThat(ProductEntity.formatSales(0)).isEqualTo("已售 0件");
+        assertThat(ProductEntity.formatSales(9999)).isEqualTo("已售 9999件");
+        assertThat(ProductEntity.formatSales(10000)).isEqualTo("已售 1万件");
+        assertThat(ProductEntity.formatSales(23999)).isEqualTo("已售 2.3万件");
+
+        assertThat(ProductEntity.parseSales("已售 2.3万件")).isEqualTo(23000);
+        assertThat(ProductEntity.parseSales("已售 856件")).isEqualTo(856);
+        assertThat(ProductEntity.parseSales("热销中")).isZero();
+        assertThat(ProductEntity.parseSales(null)).isZero();
+
+        ProductEntity product = new ProductEntity();
+        product.setSoldCount(15000L);
+        assertThat(product.getSales()).isEqualTo("已售 1.5万件");
+    }
 }
@@ -0,0 +1,357 @@
+package com.crsp.mall.loadtest;
+
+import com.crsp.mall.entity.OrderItemEntity;
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.entity.UserEntity;
+import com.crsp.mall.repository.OrderItemRepository;
+import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.service.ProductDbService;
+import com.crsp.mall.service.UserService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import javax.sql.DataSource;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 下单压测 - 启动完整应用（嵌入式H2），预置少量库存的商品，大量客户端并发提交随机购物车，
+ * 输出吞吐量、延迟分位数、锁等待，并校验库存不为负、扣减的库存与订单明细一致。
+ * 只在loadtest profile下运行：mvn -Ploadtest test [-Dloadtest.checkouts=5000 -Dapp.checkout.intake.enabled=true ...]
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class CheckoutLoadTest {
+
+    private static final String CHECKOUT_BODY =
+            "{\"userName\":\"压测\",\"userPhone\":\"13800138000\",\"shippingAddress\":\"压测地址\"}";
+
+    // 429时使用同一幂等键重试的最大次数
+    private static final int MAX_BUSY_RETRIES = 5;
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${loadtest.products:20}")
+    private int productCount;
+
+    @Value("${loadtest.stock:10}")
+    private int stock;
+
+    @Value("${loadtest.checkouts:2000}")
+    private int checkouts;
+
+    @Value("${loadtest.concurrency:200}")
+    private int concurrency;
+
+    @Value("${loadtest.max-cart-items:3}")
+    private int maxCartItems;
+
+    @Value("${loadtest.flash-sale:false}")
+    private boolean flashSale;
+
+    @Value("${loadtest.seed:42}")
+    private long seed;
+
+    @Value("${app.checkout.intake.enabled:false}")
+    private boolean intakeEnabled;
+
+    @Value("${spring.datasource.url}")
+    private String datasourceUrl;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private OrderItemRepository orderItemRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void concurrentCheckoutsNeverOversell() throws Exception {
+        List<ProductEntity> products = seedProducts();
+        List<String> tokens = seedCarts(products);
+        Set<Long> productIds = new HashSet<>();
+        products.forEach(product -> productIds.add(product.getId()));
+        long ordersBefore = orderRepository.count();
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        long[] latencies = new long[tokens.size()];
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger busy = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        LockWaitSampler sampler = new LockWaitSampler();
+        Thread samplerThread = new Thread(sampler, "loadtest-lock-sampler");
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(tokens.size());
+        long start = System.nanoTime();
+        try (ClientExecutor executor = ClientExecutor.create(concurrency)) {
+            for (int i = 0; i < tokens.size(); i++) {
+                int index = i;
+                inFlight.acquire();
+                executor.submit(() -> {
+                    try {
+                        long begin = System.nanoTime();
+                        int status = checkout(client, tokens.get(index), busy);
+                        latencies[index] = System.nanoTime() - begin;
+                        switch (status) {
+                            case 200 -> succeeded.incrementAndGet();
+                            case 400 -> rejected.incrementAndGet();
+                            default -> errors.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        inFlight.release();
+                        done.countDown();
+                    }
+                });
+            }
+            assertThat(done.await(10, TimeUnit.MINUTES)).isTrue();
+        }
+        long elapsed = System.nanoTime() - start;
+        sampler.stop();
+        samplerThread.join();
+
+        // 库存不变量：不为负，扣减量等于订单明细数量之和
+        Map<Long, Integer> ordered = new HashMap<>();
+        for (OrderItemEntity item : orderItemRepository.findAll()) {
+            if (productIds.contains(item.getProductId())) {
+                ordered.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            }
+        }
+        int consumed = 0;
+        int negative = 0;
+        int mismatched = 0;
+        for (ProductEntity product : products) {
+            ProductEntity current = productDbService.getProductById(product.getId()).orElseThrow();
+            int remaining = productDbService.getAvailableStock(current);
+            int used = stock - remaining;
+            consumed += used;
+            if (remaining < 0) {
+                negative++;
+            }
+            if (used != ordered.getOrDefault(product.getId(), 0)) {
+                mismatched++;
+            }
+        }
+        long orders = orderRepository.count() - ordersBefore;
+
+        Arrays.sort(latencies);
+        double seconds = elapsed / 1e9;
+        System.out.printf("%n===== 下单压测 =====%n");
+        System.out.printf("配置: 商品=%d 每件库存=%d 下单数=%d 并发=%d 购物车最多%d件 秒杀=%s 下单队列=%s 客户端=%s%n",
+                productCount, stock, tokens.size(), concurrency, maxCartItems, flashSale,
+                intakeEnabled, ClientExecutor.kind());
+        System.out.printf("结果: 成功=%d 库存不足=%d 429重试=%d 异常=%d 订单=%d 扣减库存=%d%n",
+                succeeded.get(), rejected.get(), busy.get(), errors.get(), orders, consumed);
+        System.out.printf("吞吐量: %.1f 单/秒 (%.2f 秒)%n", tokens.size() / seconds, seconds);
+        System.out.printf("延迟: p50=%.1fms p99=%.1fms max=%.1fms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+        System.out.printf("锁等待(采样估算): 行锁=%.1fms 等待连接=%.1fms%n",
+                sampler.lockWaitMillis(), sampler.connectionWaitMillis());
+        System.out.printf("不变量: 库存为负的商品=%d 扣减与订单明细不一致的商品=%d%n", negative, mismatched);
+
+        assertThat(errors.get()).isZero();
+        assertThat(negative).isZero();
+        assertThat(mismatched).isZero();
+        assertThat(orders).isEqualTo(succeeded.get());
+    }
+
+    private List<ProductEntity> seedProducts() {
+        List<ProductEntity> products = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("压测商品" + i);
+            product.setPrice(10.0 + i);
+            product.setStock(stock);
+            product.setActive(true);
+            product.setFlashSale(flashSale);
+            products.add(productDbService.saveProduct(product));
+        }
+        return products;
+    }
+
+    /**
+     * 每个用户一个随机购物车（1到maxCartItems个不同商品，每件1-2个）
+     */
+    private List<String> seedCarts(List<ProductEntity> products) {
+        Random random = new Random(seed);
+        List<ProductEntity> shuffled = new ArrayList<>(products);
+        List<String> tokens = new ArrayList<>(checkouts);
+        for (int i = 0; i < checkouts; i++) {
+            UserEntity user = userService.createGuest();
+            Collections.shuffle(shuffled, random);
+            int items = 1 + random.nextInt(Math.min(maxCartItems, shuffled.size()));
+            for (int j = 0; j < items; j++) {
+                userService.addToCart(user.getId(), shuffled.get(j), null, 1 + random.nextInt(2));
+            }
+            tokens.add(user.getToken());
+        }
+        return tokens;
+    }
+
+    private int checkout(HttpClient client, String token, AtomicInteger busy) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/user/checkout"))
+                .header("Content-Type", "application/json")
+                .header("Cookie", "user_token=" + token)
+                .header("Idempotency-Key", UUID.randomUUID().toString())
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.ofString(CHECKOUT_BODY))
+                .build();
+        for (int attempt = 0; ; attempt++) {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 429 || attempt >= MAX_BUSY_RETRIES) {
+                return response.statusCode();
+            }
+            busy.incrementAndGet();
+            long retryAfter = response.headers().firstValueAsLong("Retry-After").orElse(1);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(retryAfter));
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    /**
+     * 锁等待采样：定期统计被行锁阻塞的数据库会话数和等待连接池的线程数，累计为等待时间估算
+     * 使用独立连接查询，不占用应用连接池
+     */
+    private class LockWaitSampler implements Runnable {
+
+        private static final long INTERVAL_MILLIS = 5;
+
+        private final AtomicBoolean running = new AtomicBoolean(true);
+
+        private final AtomicLong blockedSamples = new AtomicLong();
+
+        private final AtomicLong awaitingSamples = new AtomicLong();
+
+        @Override
+        public void run() {
+            HikariDataSource pool = unwrapPool();
+            try (Connection connection = DriverManager.getConnection(datasourceUrl, "sa", "");
+                 Statement statement = connection.createStatement()) {
+                while (running.get()) {
+                    try (ResultSet rs = statement.executeQuery(
+                            "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE BLOCKER_ID IS NOT NULL")) {
+                        rs.next();
+                        blockedSamples.addAndGet(rs.getLong(1));
+                    }
+                    if (pool != null && pool.getHikariPoolMXBean() != null) {
+                        awaitingSamples.addAndGet(pool.getHikariPoolMXBean().getThreadsAwaitingConnection());
+                    }
+                    Thread.sleep(INTERVAL_MILLIS);
+                }
+            } catch (Exception e) {
+                System.out.println("锁等待采样中止: " + e);
+            }
+        }
+
+        void stop() {
+            running.set(false);
+        }
+
+        double lockWaitMillis() {
+            return blockedSamples.get() * (double) INTERVAL_MILLIS;
+        }
+
+        double connectionWaitMillis() {
+            return awaitingSamples.get() * (double) INTERVAL_MILLIS;
+        }
+
+        private HikariDataSource unwrapPool() {
+            try {
+                return dataSource.unwrap(HikariDataSource.class);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 客户端线程：JDK 21及以上使用虚拟线程（每个请求一个），否则使用与并发数相同的线程池
+     */
+    private record ClientExecutor(ExecutorService executor) implements AutoCloseable {
+
+        static ClientExecutor create(int concurrency) {
+            try {
+                return new ClientExecutor((ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+            } catch (ReflectiveOperationException e) {
+                return new ClientExecutor(Executors.newFixedThreadPool(concurrency));
+            }
+        }
+
+        static String kind() {
+            try {
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return "虚拟线程";
+            } catch (NoSuchMethodException e) {
+                return "线程池";
+            }
+        }
+
+        void submit(Runnable task) {
+            executor.execute(task);
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
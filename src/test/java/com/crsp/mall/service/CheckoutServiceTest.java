@@ -0,0 +1,84 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.entity.UserEntity;
+import com.crsp.mall.entity.UserPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest
+class CheckoutServiceTest {
+
+    @Autowired
+    private CheckoutService checkoutService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @SpyBean
+    private OrderService orderService;
+
+    private Long userId;
+
+    private Long productId;
+
+    @AfterEach
+    void cleanUp() {
+        userService.deleteUser(userId);
+        productDbService.deleteProduct(productId);
+    }
+
+    @Test
+    void duplicateSubmissionDoesNotHangWhenFirstFailsWithError() throws Exception {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("幂等下单商品");
+        product.setPrice(10.0);
+        product.setStock(10);
+        product.setActive(true);
+        product = productDbService.saveProduct(product);
+        productId = product.getId();
+        UserEntity user = userService.createGuest();
+        userId = user.getId();
+        userService.addToCart(userId, product, null, 1);
+        UserPrincipal principal = new UserPrincipal(userId, user.getUserType(), true);
+        CheckoutService.CheckoutRequest request =
+                new CheckoutService.CheckoutRequest("测试", "13800138000", "测试地址", "");
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new Error("模拟严重错误");
+        }).when(orderService).saveOrder(any(), anyList());
+
+        CompletableFuture<Object> first = CompletableFuture.supplyAsync(
+                () -> checkoutService.checkout(principal, request, "error-key"));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Object> duplicate = CompletableFuture.supplyAsync(
+                () -> checkoutService.checkout(principal, request, "error-key"));
+        Thread.sleep(200);
+        release.countDown();
+
+        // 首个请求因Error失败后，等待同一幂等键的请求也应失败返回，而不是一直挂起
+        assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        assertThatThrownBy(() -> duplicate.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+    }
+}
@@ -0,0 +1,89 @@
+package com.crsp.mall.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CoOccurrenceModelTest {
+
+    @Test
+    void ranksProductsViewedTogetherByMoreUsersFirst() {
+        CoOccurrenceModel model = new CoOccurrenceModel(3);
+        model.addView(1L, 10L);
+        model.addView(1L, 20L);
+        model.addView(2L, 10L);
+        model.addView(2L, 20L);
+        model.addView(2L, 30L);
+        model.addView(3L, 40L);
+
+        Map<Long, long[]> neighbors = model.computeDirtyNeighbors();
+
+        assertThat(neighbors.get(10L)).containsExactly(20L, 30L);
+        assertThat(neighbors.get(30L)).containsExactly(10L, 20L);
+        assertThat(neighbors.get(40L)).isEmpty();
+    }
+
+    @Test
+    void cartSignalOutweighsViewsAndOnlyDirtyProductsAreRecomputed() {
+        CoOccurrenceModel model = new CoOccurrenceModel(5);
+        model.addView(1L, 10L);
+        model.addView(1L, 20L);
+        model.addView(1L, 30L);
+        model.computeDirtyNeighbors();
+
+        model.addCart(2L, 10L);
+        model.addCart(2L, 30L);
+        model.addView(1L, 10L);
+        Map<Long, long[]> updated = model.computeDirtyNeighbors();
+
+        assertThat(updated).containsOnlyKeys(10L, 30L);
+        assertThat(updated.get(10L)).startsWith(30L);
+        assertThat(model.computeDirtyNeighbors()).isEmpty();
+    }
+
+    @Test
+    void evictsLeastRecentUsersAndPrunesWeakPairs() {
+        CoOccurrenceModel model = new CoOccurrenceModel(10, 1, 4);
+        model.addView(1L, 10L);
+        model.addView(2L, 20L);
+        // 用户1已被淘汰，10和30不再共现
+        model.addView(1L, 30L);
+        assertThat(model.computeDirtyNeighbors().get(30L)).isEmpty();
+
+        for (long user = 10; user < 13; user++) {
+            model.addView(user, 100L);
+            model.addView(user, 101L);
+        }
+        for (long other = 200; other < 205; other++) {
+            model.addView(99L, 100L);
+            model.addView(99L, other);
+        }
+        long[] neighbors = model.computeDirtyNeighbors().get(100L);
+        assertThat(neighbors).hasSizeLessThanOrEqualTo(4).startsWith(101L);
+    }
+
+    @Test
+    void snapshotRoundTripRestoresNeighbors() throws Exception {
+        CoOccurrenceModel model = new CoOccurrenceModel(3);
+        model.addView(1L, 10L);
+        model.addView(1L, 20L);
+        model.addCart(2L, 10L);
+        model.addCart(2L, 30L);
+        Map<Long, long[]> expected = model.computeDirtyNeighbors();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        model.writeTo(new DataOutputStream(bytes));
+        CoOccurrenceModel restored = new CoOccurrenceModel(3);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Map<Long, long[]> neighbors = restored.computeDirtyNeighbors();
+        assertThat(neighbors).containsOnlyKeys(expected.keySet());
+        expected.forEach((id, ids) -> assertThat(neighbors.get(id)).containsExactly(ids));
+    }
+}
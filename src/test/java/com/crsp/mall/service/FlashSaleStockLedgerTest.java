@@ -0,0 +1,139 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FlashSaleStockLedgerTest {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path journalDir;
+
+    private FlashSaleStockLedger ledger;
+
+    private Long productId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("秒杀商品");
+        product.setPrice(9.9);
+        product.setStock(100);
+        product.setFlashSale(true);
+        productId = productRepository.save(product).getId();
+        ledger = newLedger();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        productRepository.deleteAll();
+    }
+
+    @Test
+    void concurrentReservationsNeverOversell() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(executor.submit(() -> {
+                int granted = 0;
+                while (ledger.reserve(productId, 1) == FlashSaleStockLedger.Reservation.GRANTED) {
+                    granted++;
+                }
+                return granted;
+            }));
+        }
+        int granted = 0;
+        for (Future<Integer> result : results) {
+            granted += result.get();
+        }
+        executor.shutdown();
+
+        assertThat(granted).isEqualTo(100);
+        assertThat(ledger.getAvailable(productId)).isZero();
+        assertThat(productRepository.findStock(productId)).isEqualTo(100);
+
+        assertThat(ledger.flush()).isEqualTo(1);
+        assertThat(productRepository.findStock(productId)).isZero();
+    }
+
+    @Test
+    void rolledBackReservationIsReleased() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.executeWithoutResult(status -> {
+            assertThat(ledger.reserve(productId, 30)).isEqualTo(FlashSaleStockLedger.Reservation.GRANTED);
+            status.setRollbackOnly();
+        });
+        assertThat(ledger.getAvailable(productId)).isEqualTo(100);
+
+        assertThat(ledger.reserve(productId, 101)).isEqualTo(FlashSaleStockLedger.Reservation.REJECTED);
+        ledger.onProductChanged(productId, false);
+        assertThat(ledger.reserve(productId, 1)).isEqualTo(FlashSaleStockLedger.Reservation.NOT_MANAGED);
+    }
+
+    @Test
+    void restartReplaysUnflushedJournal() throws Exception {
+        ledger.reserve(productId, 3);
+        ledger.reserve(productId, 4);
+
+        // 模拟未写回即崩溃：新实例启动时从日志恢复
+        FlashSaleStockLedger restarted = newLedger();
+        assertThat(productRepository.findStock(productId)).isEqualTo(93);
+        assertThat(restarted.reserve(productId, 93)).isEqualTo(FlashSaleStockLedger.Reservation.GRANTED);
+        assertThat(restarted.reserve(productId, 1)).isEqualTo(FlashSaleStockLedger.Reservation.REJECTED);
+    }
+
+    @Test
+    void journalIsCreatedOnFirstReservationAndSyncedBeforeCommit() throws Exception {
+        Path lazyDir = journalDir.resolve("lazy");
+        FlashSaleStockLedger synced = newLedger(lazyDir, true);
+        assertThat(lazyDir).doesNotExist();
+
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.executeWithoutResult(status -> {
+            assertThat(synced.reserve(productId, 2)).isEqualTo(FlashSaleStockLedger.Reservation.GRANTED);
+            assertThat(synced.reserve(productId, 5)).isEqualTo(FlashSaleStockLedger.Reservation.GRANTED);
+        });
+        assertThat(lazyDir).isDirectory();
+
+        newLedger(lazyDir, true);
+        assertThat(productRepository.findStock(productId)).isEqualTo(93);
+    }
+
+    private FlashSaleStockLedger newLedger() throws Exception {
+        return newLedger(journalDir, false);
+    }
+
+    private FlashSaleStockLedger newLedger(Path dir, boolean sync) throws Exception {
+        FlashSaleStockLedger created = new FlashSaleStockLedger(dir.toString(), sync);
+        ReflectionTestUtils.setField(created, "productRepository", productRepository);
+        created.recover();
+        return created;
+    }
+}
@@ -0,0 +1,68 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.UserEntity;
+import com.crsp.mall.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import(LastVisitTracker.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class LastVisitTrackerTest {
+
+    @Autowired
+    private LastVisitTracker lastVisitTracker;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @AfterEach
+    void cleanUp() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void flushWritesLatestVisitPerUserWithoutTouchingUpdatedAt() {
+        UserEntity first = userRepository.save(new UserEntity());
+        UserEntity second = userRepository.save(new UserEntity());
+        LocalDateTime updatedAt = userRepository.findById(first.getId()).orElseThrow().getUpdatedAt();
+        // 新用户创建时已记录访问时间，使用晚于当前的时间
+        LocalDateTime visit = LocalDateTime.now().plusDays(1).withNano(0);
+        long base = millis(visit);
+
+        lastVisitTracker.record(first.getId(), base + 5_000);
+        lastVisitTracker.record(first.getId(), base + 1_000);
+        lastVisitTracker.record(second.getId(), base);
+        assertThat(lastVisitTracker.pendingLastVisit(first.getId())).isEqualTo(visit.plusSeconds(5));
+
+        assertThat(lastVisitTracker.flush()).isEqualTo(2);
+        assertThat(lastVisitTracker.pendingLastVisit(first.getId())).isNull();
+        UserEntity flushed = userRepository.findById(first.getId()).orElseThrow();
+        assertThat(flushed.getLastVisit()).isEqualTo(visit.plusSeconds(5));
+        assertThat(flushed.getUpdatedAt()).isEqualTo(updatedAt);
+        assertThat(userRepository.findById(second.getId()).orElseThrow().getLastVisit())
+                .isEqualTo(visit);
+
+        // 较早的访问时间不会覆盖已落库的时间
+        lastVisitTracker.record(first.getId(), base);
+        assertThat(lastVisitTracker.flush()).isEqualTo(1);
+        assertThat(userRepository.findById(first.getId()).orElseThrow().getLastVisit())
+                .isEqualTo(visit.plusSeconds(5));
+
+        assertThat(lastVisitTracker.flush()).isZero();
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -1,12 +1,17 @@
 package com.crsp.mall.service;
 
 import com.crsp.mall.entity.OrderEntity;
+import com.crsp.mall.entity.ProductEntity;
 import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.repository.ProductRepository;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
@@ -19,6 +24,12 @@ class OrderServiceTest {
     @Autowired
     private OrderRepository orderRepository;
 
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
     @Test
     void updateOrderStatusRejectsInvalidStatus() {
         OrderEntity order = new OrderEntity();
@@ -128,4 +139,34 @@ class OrderServiceTest {
         assertEquals(1, user1Orders.size());
         assertEquals("用户1", user1Orders.get(0).getUserName());
     }
+
+    @Test
+    void cancelUnpaidOrdersReleasesStockOnlyForPendingOrders() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("库存商品");
+        product.setPrice(10.0);
+        product.setStock(7);
+        product.setActive(true);
+        product = productDbService.saveProduct(product);
+
+        OrderEntity pending = new OrderEntity();
+        pending.setUserName("测试");
+        pending.setTotalAmount(30.0);
+        pending.setReservedStock(Map.of(product.getId(), 3));
+        pending = orderRepository.save(pending);
+
+        OrderEntity paid = new OrderEntity();
+        paid.setUserName("测试");
+        paid.setTotalAmount(20.0);
+        paid.setStatus("paid");
+        paid.setReservedStock(Map.of(product.getId(), 2));
+        paid = orderRepository.save(paid);
+
+        int cancelled = orderService.cancelUnpaidOrders(List.of(pending.getId(), paid.getId()));
+
+        assertEquals(1, cancelled);
+        assertEquals("cancelled", orderRepository.findById(pending.getId()).orElseThrow().getStatus());
+        assertEquals("paid", orderRepository.findById(paid.getId()).orElseThrow().getStatus());
+        assertEquals(10, productRepository.findStock(product.getId()));
+    }
 }
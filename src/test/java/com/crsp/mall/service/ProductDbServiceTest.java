@@ -1,18 +1,33 @@
 package com.crsp.mall.service;
 
+import com.crsp.mall.entity.MediaItem;
+import com.crsp.mall.entity.ProductCard;
 import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.entity.SpecItem;
 import com.crsp.mall.repository.ProductRepository;
+import com.crsp.mall.repository.ProductSkuRepository;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.context.annotation.Import;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @DataJpaTest
-@Import(ProductDbService.class)
+@Import({ProductDbService.class, FlashSaleStockLedger.class})
+@RecordApplicationEvents
 class ProductDbServiceTest {
 
     @Autowired
@@ -21,6 +36,21 @@ class ProductDbServiceTest {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductSkuRepository skuRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private ApplicationEvents events;
+
+    @AfterEach
+    void resetCatalog() {
+        // 快照为单例状态，避免测试回滚的数据残留到其他测试
+        productDbService.refreshCatalog();
+    }
+
     @Test
     void searchProductsMatchesTagDescriptionAndSpecForActiveItems() {
         ProductEntity activeProduct = new ProductEntity();
@@ -42,22 +72,359 @@ class ProductDbServiceTest {
         inactiveProduct = productRepository.save(inactiveProduct);
         assertThat(inactiveProduct.getId()).isNotNull();
 
-        List<ProductEntity> tagResults = productDbService.searchProducts("爆款");
+        List<ProductCard> tagResults = productDbService.searchProductPage("爆款", null, 50).items();
         assertThat(tagResults)
-                .extracting(ProductEntity::getId)
+                .extracting(ProductCard::id)
                 .contains(activeProduct.getId())
                 .doesNotContain(inactiveProduct.getId());
 
-        List<ProductEntity> descriptionResults = productDbService.searchProducts("优惠");
+        List<ProductCard> descriptionResults = productDbService.searchProductPage("优惠", null, 50).items();
         assertThat(descriptionResults)
-                .extracting(ProductEntity::getId)
+                .extracting(ProductCard::id)
                 .contains(activeProduct.getId())
                 .doesNotContain(inactiveProduct.getId());
 
-        List<ProductEntity> specResults = productDbService.searchProducts("粉色");
+        List<ProductCard> specResults = productDbService.searchProductPage("粉色", null, 50).items();
         assertThat(specResults)
-                .extracting(ProductEntity::getId)
+                .extracting(ProductCard::id)
                 .contains(activeProduct.getId())
                 .doesNotContain(inactiveProduct.getId());
     }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void activeProductsAreServedFromVersionedSnapshot() {
+        CatalogSnapshot initial = productDbService.getCatalog();
+
+        ProductEntity product = new ProductEntity();
+        product.setTitle("快照商品");
+        product.setPrice(66.0);
+        product.setActive(true);
+        product = productDbService.saveProduct(product);
+        Long productId = product.getId();
+
+        CatalogSnapshot afterSave = productDbService.getCatalog();
+        assertThat(afterSave.getVersion()).isGreaterThan(initial.getVersion());
+        assertThat(afterSave.getProducts()).extracting(ProductCard::id).contains(productId);
+        assertThat(initial.getProducts()).extracting(ProductCard::id).doesNotContain(productId);
+
+        // 快照不随数据库直接变更而变化，刷新后才重新加载
+        productRepository.deleteById(productId);
+        assertThat(productDbService.getActiveProducts()).extracting(ProductCard::id).contains(productId);
+        productDbService.refreshCatalog();
+        assertThat(productDbService.getActiveProducts()).extracting(ProductCard::id).doesNotContain(productId);
+
+        ProductEntity hidden = new ProductEntity();
+        hidden.setTitle("下架商品");
+        hidden.setPrice(10.0);
+        hidden.setActive(true);
+        hidden = productDbService.saveProduct(hidden);
+        hidden.setActive(false);
+        productDbService.saveProduct(hidden);
+        assertThat(productDbService.getActiveProducts()).extracting(ProductCard::id).doesNotContain(hidden.getId());
+
+        productDbService.deleteProduct(hidden.getId());
+    }
+
+    @Test
+    void activeProductPageWalksCatalogWithCursor() {
+        for (int i = 0; i < 5; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("分页商品" + i);
+            product.setPrice(10.0 + i);
+            product.setActive(true);
+            productRepository.save(product);
+        }
+        productDbService.refreshCatalog();
+
+        ProductPage<ProductCard> first = productDbService.getActiveProductPage(null, 2);
+        assertThat(first.items()).hasSize(2);
+        assertThat(first.total()).isEqualTo(5);
+        assertThat(first.isHasMore()).isTrue();
+
+        ProductPage<ProductCard> second = productDbService.getActiveProductPage(first.nextCursor(), 2);
+        ProductPage<ProductCard> third = productDbService.getActiveProductPage(second.nextCursor(), 2);
+        assertThat(third.items()).hasSize(1);
+        assertThat(third.nextCursor()).isNull();
+        assertThat(second.items().get(0).id()).isGreaterThan(first.items().get(1).id());
+
+        ProductPage<ProductCard> capped = productDbService.getActiveProductPage(null, 1000);
+        assertThat(capped.items()).hasSize(5);
+
+        assertThatThrownBy(() -> productDbService.getActiveProductPage("not-a-cursor", 2))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void salesProductPageOrdersBySoldCount() {
+        long[] soldCounts = {5, 50, 50, 500};
+        List<Long> ids = new ArrayList<>();
+        for (long soldCount : soldCounts) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("销量商品" + soldCount);
+            product.setPrice(10.0);
+            product.setSoldCount(soldCount);
+            product.setActive(true);
+            ids.add(productRepository.save(product).getId());
+        }
+        productDbService.refreshCatalog();
+
+        ProductPage<ProductCard> first = productDbService.getActiveProductPage(null, 2, ProductDbService.SORT_SALES);
+        ProductPage<ProductCard> second = productDbService.getActiveProductPage(first.nextCursor(), 2, "sales");
+        assertThat(first.items()).extracting(ProductCard::id).containsExactly(ids.get(3), ids.get(1));
+        assertThat(second.items()).extracting(ProductCard::id).containsExactly(ids.get(2), ids.get(0));
+        assertThat(second.nextCursor()).isNull();
+        assertThat(productDbService.getHotProducts(1)).extracting(ProductCard::id).containsExactly(ids.get(3));
+
+        // 游标与排序方式不匹配时视为无效游标
+        assertThatThrownBy(() -> productDbService.getActiveProductPage(first.nextCursor(), 2, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> productDbService.getActiveProductPage(null, 2, "price"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void backfillParsesLegacySalesText() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("旧销量商品");
+        product.setPrice(10.0);
+        product.setActive(true);
+        product = productRepository.saveAndFlush(product);
+        entityManager.getEntityManager()
+                .createNativeQuery("UPDATE products SET sold_count = NULL, sales = '已售 2.3万件' WHERE id = ?")
+                .setParameter(1, product.getId())
+                .executeUpdate();
+        entityManager.clear();
+
+        assertThat(productDbService.backfillSoldCounts()).isEqualTo(1);
+        entityManager.clear();
+
+        assertThat(productRepository.findById(product.getId()).orElseThrow().getSoldCount()).isEqualTo(23000L);
+        assertThat(productDbService.getProductCard(product.getId()))
+                .hasValueSatisfying(card -> assertThat(card.sales()).isEqualTo("已售 2.3万件"));
+        assertThat(productDbService.backfillSoldCounts()).isZero();
+    }
+
+    @Test
+    void decrementStockOnlySucceedsWhenStockSuffices() {
+        ProductEntity limited = new ProductEntity();
+        limited.setTitle("限量商品");
+        limited.setPrice(10.0);
+        limited.setStock(5);
+        limited.setActive(true);
+        Long limitedId = productRepository.save(limited).getId();
+        ProductEntity unlimited = new ProductEntity();
+        unlimited.setTitle("不限量商品");
+        unlimited.setPrice(10.0);
+        unlimited.setActive(true);
+        Long unlimitedId = productRepository.save(unlimited).getId();
+        ProductEntity inactive = new ProductEntity();
+        inactive.setTitle("下架商品");
+        inactive.setPrice(10.0);
+        inactive.setStock(5);
+        inactive.setActive(false);
+        Long inactiveId = productRepository.saveAndFlush(inactive).getId();
+
+        assertThat(productDbService.decrementStock(Map.of(limitedId, 3, unlimitedId, 100))).isEmpty();
+        assertThat(productDbService.decrementStock(Map.of(limitedId, 3))).contains(limitedId);
+        assertThat(productDbService.decrementStock(Map.of(inactiveId, 1))).contains(inactiveId);
+        entityManager.clear();
+
+        assertThat(productRepository.findById(limitedId).orElseThrow().getStock()).isEqualTo(2);
+        assertThat(productRepository.findById(unlimitedId).orElseThrow().getStock()).isNull();
+        assertThat(productRepository.findById(inactiveId).orElseThrow().getStock()).isEqualTo(5);
+    }
+
+    @Test
+    void specificationsAreSavedAsSkusWithTheirOwnStock() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("多规格商品");
+        product.setPrice(10.0);
+        product.setActive(true);
+        product.setSpecificationItems(List.of(
+                new SpecItem("红色", null, 12.0, 3),
+                new SpecItem("蓝色", null, 0.0, null)));
+        product = productDbService.saveProduct(product);
+
+        ProductSkus skus = productDbService.getProductSkus(product.getId());
+        assertThat(skus.getSkus()).extracting(ProductSkus.Sku::name).containsExactly("红色", "蓝色");
+        assertThat(skus.get(0).price()).isEqualTo(12.0);
+        assertThat(skus.get(1).price()).isNull();
+        // 库存不保存在规格JSON中
+        assertThat(product.getSpecifications()).doesNotContain("stock");
+
+        // 再次保存时未填写库存的规格沿用原库存，删除的规格移除
+        Long redId = skus.get(0).id();
+        product.setSpecificationItems(List.of(new SpecItem("红色", null, 15.0, null)));
+        productDbService.saveProduct(product);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(skuRepository.findByProductIdOrderBySortOrderAsc(product.getId()))
+                .singleElement()
+                .satisfies(sku -> {
+                    assertThat(sku.getId()).isEqualTo(redId);
+                    assertThat(sku.getPrice()).isEqualTo(15.0);
+                    assertThat(sku.getStock()).isEqualTo(3);
+                });
+    }
+
+    @Test
+    void decrementStockIsAllOrNothingAcrossSkusAndProducts() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("多规格商品");
+        product.setPrice(10.0);
+        product.setStock(10);
+        product.setActive(true);
+        product.setSpecificationItems(List.of(new SpecItem("红色", null, null, 1)));
+        product = productDbService.saveProduct(product);
+        Long productId = product.getId();
+        ProductSkus.Sku red = productDbService.getProductSkus(productId).get(0);
+
+        assertThat(productDbService.decrementStock(Map.of(productId, 2), Map.of(red, 2))).contains(productId);
+        assertThat(productDbService.decrementStock(Map.of(productId, 1), Map.of(red, 1))).isEmpty();
+        entityManager.clear();
+
+        assertThat(productRepository.findStock(productId)).isEqualTo(9);
+        assertThat(productDbService.getSkuStocks(List.of(red.id()))).containsEntry(red.id(), 0);
+
+        productDbService.releaseStock(Map.of(productId, 1), Map.of(red.id(), 1));
+        entityManager.clear();
+
+        assertThat(productRepository.findStock(productId)).isEqualTo(10);
+        assertThat(productDbService.getSkuStocks(List.of(red.id()))).containsEntry(red.id(), 1);
+    }
+
+    @Test
+    void searchProductPageKeepsRankingOrderAcrossPages() {
+        for (int i = 0; i < 3; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("静音跳蛋" + i);
+            product.setPrice(20.0);
+            product.setActive(true);
+            productRepository.save(product);
+        }
+        productDbService.refreshCatalog();
+
+        List<ProductCard> all = productDbService.searchProductPage("跳蛋", null, 50).items();
+        ProductPage<ProductCard> first = productDbService.searchProductPage("跳蛋", null, 2);
+        ProductPage<ProductCard> second = productDbService.searchProductPage("跳蛋", first.nextCursor(), 2);
+
+        assertThat(first.total()).isEqualTo(3);
+        assertThat(second.nextCursor()).isNull();
+        List<Long> paged = new ArrayList<>();
+        first.items().forEach(p -> paged.add(p.id()));
+        second.items().forEach(p -> paged.add(p.id()));
+        assertThat(paged).containsExactlyElementsOf(all.stream().map(ProductCard::id).toList());
+    }
+
+    @Test
+    void backfillDerivesMediaColumnsForLegacyRows() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("旧数据商品");
+        product.setPrice(10.0);
+        product.setActive(true);
+        product.setDisplayMedia("[{\"type\":\"image\",\"url\":\"/uploads/old.jpg\"}]");
+        product = productRepository.saveAndFlush(product);
+        entityManager.getEntityManager()
+                .createNativeQuery("UPDATE products SET first_image_url = NULL, media_count = NULL WHERE id = ?")
+                .setParameter(1, product.getId())
+                .executeUpdate();
+        entityManager.clear();
+
+        assertThat(productDbService.backfillMediaSummary()).isEqualTo(1);
+        entityManager.flush();
+        entityManager.clear();
+
+        ProductEntity reloaded = productRepository.findById(product.getId()).orElseThrow();
+        assertThat(reloaded.getMediaCount()).isEqualTo(1);
+        assertThat(reloaded.getFirstImageUrl()).isEqualTo("/uploads/old.jpg");
+        assertThat(productDbService.getProductCard(product.getId()))
+                .hasValueSatisfying(card -> assertThat(card.firstImageUrl()).isEqualTo("/uploads/old.jpg"));
+        assertThat(productDbService.backfillMediaSummary()).isZero();
+    }
+
+    @Test
+    void productMediaIsReusedUntilProductChanges() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("媒体商品");
+        product.setPrice(10.0);
+        product.setDisplayMedia("[{\"type\":\"video\",\"url\":\"/uploads/v.mp4\"}]");
+        product.setDetailMedia("[{\"type\":\"image\",\"url\":\"/uploads/d.jpg\"}]");
+        product = productRepository.saveAndFlush(product);
+
+        ProductMedia first = productDbService.getProductMedia(product);
+        assertThat(first.displayMedia()).extracting(MediaItem::url).containsExactly("/uploads/v.mp4");
+        assertThat(first.detailMedia()).extracting(MediaItem::url).containsExactly("/uploads/d.jpg");
+
+        ProductEntity reloaded = productRepository.findById(product.getId()).orElseThrow();
+        assertThat(productDbService.getProductMedia(reloaded)).isSameAs(first);
+
+        reloaded.setUpdatedAt(reloaded.getUpdatedAt().plusSeconds(1));
+        reloaded.setDetailMedia("[]");
+        assertThat(productDbService.getProductMedia(reloaded).detailMedia()).isEmpty();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void catalogChangeEventsTellWhetherListingChanged() {
+        productDbService.getCatalog();
+        ProductEntity product = new ProductEntity();
+        product.setTitle("事件商品");
+        product.setPrice(20.0);
+        product.setStock(10);
+        product.setActive(true);
+        product = productDbService.saveProduct(product);
+
+        product.setStock(9);
+        product = productDbService.saveProduct(product);
+        product.setPrice(18.0);
+        product = productDbService.saveProduct(product);
+        productDbService.deleteProduct(product.getId());
+
+        assertThat(events.stream(CatalogChangedEvent.class))
+                .extracting(CatalogChangedEvent::listingChanged)
+                .containsExactly(true, false, true, true);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void stockChangeAdvancesProductLastModifiedWithoutTouchingCatalog() throws InterruptedException {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("库存商品");
+        product.setPrice(20.0);
+        product.setStock(10);
+        product.setActive(true);
+        product = productDbService.saveProduct(product);
+        CatalogSnapshot before = productDbService.getCatalog();
+        LocalDateTime lastModified = productDbService.getProductLastModified(product.getId()).orElseThrow();
+        long eventsBefore = events.stream(CatalogChangedEvent.class).count();
+
+        Thread.sleep(5);
+        assertThat(productDbService.decrementStock(Map.of(product.getId(), 2))).isEmpty();
+
+        assertThat(productDbService.getCatalog()).isSameAs(before);
+        assertThat(events.stream(CatalogChangedEvent.class).count()).isEqualTo(eventsBefore);
+        assertThat(productDbService.getProductLastModified(product.getId())).get()
+                .satisfies(time -> assertThat(time).isAfter(lastModified));
+        productDbService.deleteProduct(product.getId());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void saveProductRollsBackProductWhenSkusFail() {
+        CatalogSnapshot before = productDbService.getCatalog();
+        long productsBefore = productRepository.count();
+
+        ProductEntity product = new ProductEntity();
+        product.setTitle("规格写入失败");
+        product.setPrice(10.0);
+        product.setActive(true);
+        // 规格名超过列长度，写入规格行失败
+        product.setSpecificationItems(List.of(new SpecItem("红".repeat(300), null, null, 3)));
+        assertThatThrownBy(() -> productDbService.saveProduct(product)).isInstanceOf(RuntimeException.class);
+
+        assertThat(productRepository.count()).isEqualTo(productsBefore);
+        assertThat(productDbService.getCatalog()).isSameAs(before);
+    }
 }
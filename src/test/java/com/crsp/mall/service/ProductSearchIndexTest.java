@@ -0,0 +1,96 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.ProductEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductSearchIndexTest {
+
+    @Test
+    void tokenizeEmitsCjkUnigramsAndBigrams() {
+        assertThat(ProductSearchIndex.tokenize("按摩棒 USB"))
+                .containsExactly("按", "按摩", "摩", "摩棒", "棒", "usb");
+    }
+
+    @Test
+    void searchMatchesChineseSubstringsWithoutSegmentation() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        index.add(product(1L, "高级震动按摩棒 多频调节", "新品"));
+        index.add(product(2L, "智能遥控跳蛋 静音设计", "热卖"));
+
+        assertThat(search(index, "按摩")).containsExactly(1L);
+        assertThat(search(index, "遥控跳蛋")).containsExactly(2L);
+        assertThat(search(index, "震")).containsExactly(1L);
+        assertThat(search(index, "按摩蛋")).isEmpty();
+    }
+
+    @Test
+    void searchRanksTitleMatchesAboveDescriptionMatches() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        ProductEntity inDescription = product(1L, "情趣套装", "热卖");
+        inDescription.setDescription("附赠静音跳蛋一枚");
+        index.add(inDescription);
+        index.add(product(2L, "静音跳蛋", "新品"));
+
+        assertThat(search(index, "跳蛋")).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void searchSupportsLatinPrefixAndIncrementalUpdates() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        ProductEntity product = product(1L, "Vibrator Pro", "新品");
+        index.add(product);
+        assertThat(search(index, "VIB")).containsExactly(1L);
+
+        product.setTitle("Massager Pro");
+        index.add(product);
+        assertThat(search(index, "vib")).isEmpty();
+        assertThat(search(index, "massager")).containsExactly(1L);
+
+        index.remove(1L);
+        assertThat(search(index, "pro")).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    void pagedSearchSelectsHitsAfterCursorInRankOrder() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        for (long id = 1; id <= 25; id++) {
+            ProductEntity product = product(id, "按摩器 " + "加强".repeat((int) (id % 4)), "新品");
+            product.setDescription(id % 3 == 0 ? "按摩" : null);
+            index.add(product);
+        }
+        List<ProductSearchIndex.Hit> all = index.search("按摩", null, 25).hits();
+        assertThat(all).hasSize(25).isSortedAccordingTo(ProductSearchIndex.HIT_ORDER);
+
+        List<ProductSearchIndex.Hit> paged = new ArrayList<>();
+        ProductSearchIndex.Hit after = null;
+        ProductSearchIndex.Page page;
+        do {
+            page = index.search("按摩", after, 7);
+            assertThat(page.total()).isEqualTo(25);
+            assertThat(page.hits()).hasSizeLessThanOrEqualTo(7);
+            paged.addAll(page.hits());
+            after = page.hits().get(page.hits().size() - 1);
+        } while (page.hasMore());
+
+        assertThat(paged).containsExactlyElementsOf(all);
+    }
+
+    private static List<Long> search(ProductSearchIndex index, String keyword) {
+        return index.search(keyword, null, 50).hits().stream().map(ProductSearchIndex.Hit::productId).toList();
+    }
+
+    private static ProductEntity product(Long id, String title, String tag) {
+        ProductEntity product = new ProductEntity();
+        product.setId(id);
+        product.setTitle(title);
+        product.setTag(tag);
+        product.setActive(true);
+        return product;
+    }
+}
@@ -0,0 +1,101 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.BrowsingHistoryEntity;
+import com.crsp.mall.entity.CartItemEntity;
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.repository.BrowsingHistoryRepository;
+import com.crsp.mall.repository.CartItemRepository;
+import com.crsp.mall.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import({RecommendationService.class, RelatedProductService.class, ProductDbService.class, FlashSaleStockLedger.class})
+class RecommendationServiceTest {
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private RelatedProductService relatedProductService;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private BrowsingHistoryRepository browsingHistoryRepository;
+
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
+    @AfterEach
+    void resetCatalog() {
+        productDbService.refreshCatalog();
+    }
+
+    @Test
+    void recommendsNeighborsOfUserSignalsExcludingOwnedProducts() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("推荐商品" + i);
+            product.setPrice(10.0 + i);
+            product.setActive(true);
+            ids.add(productRepository.save(product).getId());
+        }
+        productDbService.refreshCatalog();
+        // 其他用户同时浏览了商品0和商品3、商品1和商品4
+        view(100L, ids.get(0));
+        view(100L, ids.get(3));
+        view(101L, ids.get(1));
+        view(101L, ids.get(4));
+        relatedProductService.refresh();
+
+        Long userId = 1L;
+        view(userId, ids.get(0));
+        CartItemEntity item = new CartItemEntity();
+        item.setUserId(userId);
+        item.setProductId(ids.get(1));
+        cartItemRepository.save(item);
+
+        List<ProductCard> recommended = recommendationService.recommend(userId, 3);
+
+        assertThat(recommended).extracting(ProductCard::id)
+                .startsWith(ids.get(4), ids.get(3))
+                .doesNotContain(ids.get(1))
+                .hasSize(3);
+    }
+
+    @Test
+    void anonymousUsersGetCatalogProducts() {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("默认推荐");
+        product.setPrice(10.0);
+        product.setActive(true);
+        product = productRepository.save(product);
+        productDbService.refreshCatalog();
+
+        assertThat(recommendationService.recommend(null, 4))
+                .extracting(ProductCard::id)
+                .contains(product.getId());
+    }
+
+    private void view(Long userId, Long productId) {
+        BrowsingHistoryEntity history = new BrowsingHistoryEntity();
+        history.setUserId(userId);
+        history.setProductId(productId);
+        browsingHistoryRepository.save(history);
+    }
+}
@@ -0,0 +1,113 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.BrowsingHistoryEntity;
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.repository.BrowsingHistoryRepository;
+import com.crsp.mall.repository.CartItemRepository;
+import com.crsp.mall.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import({RelatedProductService.class, ProductDbService.class, FlashSaleStockLedger.class})
+class RelatedProductServiceTest {
+
+    @Autowired
+    private RelatedProductService relatedProductService;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private BrowsingHistoryRepository browsingHistoryRepository;
+
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
+    @TempDir
+    Path snapshotDir;
+
+    @AfterEach
+    void resetCatalog() {
+        productDbService.refreshCatalog();
+    }
+
+    @Test
+    void relatedProductsFollowCoViewsAndFallBackToCatalog() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("相关商品" + i);
+            product.setPrice(10.0 + i);
+            product.setActive(true);
+            ids.add(productRepository.save(product).getId());
+        }
+        productDbService.refreshCatalog();
+        view(1L, ids.get(0));
+        view(1L, ids.get(3));
+        view(2L, ids.get(0));
+        view(2L, ids.get(3));
+        view(2L, ids.get(2));
+
+        assertThat(relatedProductService.refresh()).isEqualTo(5);
+
+        List<ProductCard> related = relatedProductService.getRelatedProducts(ids.get(0), 3);
+        assertThat(related).extracting(ProductCard::id).startsWith(ids.get(3), ids.get(2));
+        assertThat(related).hasSize(3).extracting(ProductCard::id).doesNotContain(ids.get(0));
+
+        // 水位线之后没有新记录时不重复处理
+        assertThat(relatedProductService.refresh()).isZero();
+    }
+
+    @Test
+    void restartResumesFromSnapshotWithoutRescanningHistory() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ProductEntity product = new ProductEntity();
+            product.setTitle("快照商品" + i);
+            product.setPrice(10.0 + i);
+            product.setActive(true);
+            ids.add(productRepository.save(product).getId());
+        }
+        productDbService.refreshCatalog();
+        view(7L, ids.get(0));
+        view(7L, ids.get(1));
+        RelatedProductService first = newService();
+        assertThat(first.refresh()).isEqualTo(2);
+
+        RelatedProductService restarted = newService();
+        assertThat(restarted.getNeighbors(ids.get(0))).containsExactly(ids.get(1));
+        assertThat(restarted.refresh()).isZero();
+    }
+
+    private RelatedProductService newService() {
+        RelatedProductService created = new RelatedProductService(snapshotDir.resolve("cooccurrence.bin").toString());
+        ReflectionTestUtils.setField(created, "browsingHistoryRepository", browsingHistoryRepository);
+        ReflectionTestUtils.setField(created, "cartItemRepository", cartItemRepository);
+        ReflectionTestUtils.setField(created, "productDbService", productDbService);
+        created.load();
+        return created;
+    }
+
+    private void view(Long userId, Long productId) {
+        BrowsingHistoryEntity history = new BrowsingHistoryEntity();
+        history.setUserId(userId);
+        history.setProductId(productId);
+        browsingHistoryRepository.save(history);
+    }
+}
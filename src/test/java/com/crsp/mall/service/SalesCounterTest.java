@@ -0,0 +1,142 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.OrderEntity;
+import com.crsp.mall.entity.ProductCard;
+import com.crsp.mall.entity.ProductEntity;
+import com.crsp.mall.repository.OrderRepository;
+import com.crsp.mall.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import({ProductDbService.class, FlashSaleStockLedger.class, SalesCounter.class, OrderService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@RecordApplicationEvents
+class SalesCounterTest {
+
+    @Autowired
+    private ApplicationEvents events;
+
+    @Autowired
+    private SalesCounter salesCounter;
+
+    @Autowired
+    private ProductDbService productDbService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @AfterEach
+    void cleanUp() {
+        orderRepository.deleteAll();
+        productRepository.deleteAll();
+        productDbService.refreshCatalog();
+    }
+
+    @Test
+    void flushAddsPendingSalesToDatabaseAndSnapshot() {
+        ProductEntity product = productDbService.saveProduct(newProduct(9_990));
+        Long productId = product.getId();
+
+        salesCounter.record(productId, 3);
+        salesCounter.record(productId, 7);
+        assertThat(salesCounter.pendingCount(productId)).isEqualTo(10);
+
+        assertThat(salesCounter.flush()).isEqualTo(1);
+        assertThat(salesCounter.pendingCount(productId)).isZero();
+        assertThat(productRepository.findById(productId).orElseThrow().getSoldCount()).isEqualTo(10_000L);
+        assertThat(productDbService.getProductCard(productId)).get()
+                .extracting(ProductCard::soldCount, ProductCard::sales)
+                .containsExactly(10_000L, "已售 1万件");
+
+        assertThat(salesCounter.flush()).isZero();
+    }
+
+    @Test
+    void flushChangesListETagWithoutInvalidatingPagesWhenLabelsAreUnchanged() {
+        Long leader = productDbService.saveProduct(newProduct(10_002)).getId();
+        Long chaser = productDbService.saveProduct(newProduct(10_000)).getId();
+        CatalogSnapshot before = productDbService.getCatalog();
+        assertThat(before.getProductsBySales()).extracting(ProductCard::id).containsExactly(leader, chaser);
+
+        events.clear();
+        salesCounter.record(chaser, 3);
+        salesCounter.flush();
+
+        // "已售 1万件"不变：不发布目录变更事件（页面缓存保留），列表返回的精确数量和排序变化，ETag随之变化
+        CatalogSnapshot after = productDbService.getCatalog();
+        assertThat(events.stream(CatalogChangedEvent.class)).isEmpty();
+        assertThat(after.getETag()).isNotEqualTo(before.getETag());
+        assertThat(after.getProduct(chaser).soldCount()).isEqualTo(10_003L);
+        assertThat(after.getProductsBySales()).extracting(ProductCard::id).containsExactly(chaser, leader);
+    }
+
+    @Test
+    void cancelledOrderIsTakenBackOutOfSoldCount() {
+        Long productId = productDbService.saveProduct(newProduct(100)).getId();
+        OrderEntity order = new OrderEntity();
+        order.setUserName("测试");
+        order.setTotalAmount(30.0);
+        order.setStatus("pending");
+        order.setReservedStock(Map.of(productId, 3));
+        order = orderRepository.save(order);
+        salesCounter.record(productId, 3);
+        salesCounter.flush();
+
+        orderService.updateOrderStatus(order.getId(), "cancelled");
+        assertThat(salesCounter.pendingCount(productId)).isEqualTo(-3);
+        salesCounter.flush();
+
+        assertThat(productRepository.findById(productId).orElseThrow().getSoldCount()).isEqualTo(100L);
+        assertThat(productDbService.getProductCard(productId)).get()
+                .extracting(ProductCard::soldCount)
+                .isEqualTo(100L);
+    }
+
+    @Test
+    void productSaveDoesNotOverwriteFlushedSales() {
+        ProductEntity product = productDbService.saveProduct(newProduct(100));
+        salesCounter.record(product.getId(), 5);
+        salesCounter.flush();
+
+        // 后台表单提交的商品不含已售数量，持有旧值的实体保存也不会覆盖累加结果
+        ProductEntity edited = newProduct(0);
+        edited.setSoldCount(null);
+        edited.setId(product.getId());
+        edited.setTitle("修改后的标题");
+        productDbService.saveProduct(edited);
+        product.setPrice(20.0);
+        productDbService.saveProduct(product);
+
+        assertThat(productRepository.findById(product.getId()).orElseThrow().getSoldCount()).isEqualTo(105L);
+        assertThat(productDbService.getProductCard(product.getId())).get()
+                .extracting(ProductCard::soldCount)
+                .isEqualTo(105L);
+    }
+
+    private static ProductEntity newProduct(long soldCount) {
+        ProductEntity product = new ProductEntity();
+        product.setTitle("销量计数商品");
+        product.setPrice(10.0);
+        product.setSoldCount(soldCount);
+        product.setActive(true);
+        return product;
+    }
+}
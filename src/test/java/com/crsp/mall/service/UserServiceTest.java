@@ -5,6 +5,7 @@ import com.crsp.mall.entity.FavoriteEntity;
 import com.crsp.mall.entity.OrderEntity;
 import com.crsp.mall.entity.ProductEntity;
 import com.crsp.mall.entity.UserEntity;
+import com.crsp.mall.entity.UserPrincipal;
 import com.crsp.mall.repository.CartItemRepository;
 import com.crsp.mall.repository.FavoriteRepository;
 import com.crsp.mall.repository.OrderRepository;
@@ -36,8 +37,8 @@ class UserServiceTest {
     private OrderRepository orderRepository;
 
     @Test
-    void getOrCreateUserCreatesGuestWithToken() {
-        UserEntity user = userService.getOrCreateUser(null);
+    void createGuestCreatesGuestWithToken() {
+        UserEntity user = userService.createGuest();
         assertNotNull(user.getId());
         assertNotNull(user.getToken());
         assertEquals("guest", user.getUserType());
@@ -45,15 +46,16 @@ class UserServiceTest {
     }
 
     @Test
-    void getOrCreateUserReturnsExistingUser() {
-        UserEntity first = userService.getOrCreateUser(null);
-        UserEntity second = userService.getOrCreateUser(first.getToken());
-        assertEquals(first.getId(), second.getId());
+    void existingUserIsResolvedByToken() {
+        UserEntity first = userService.createGuest();
+        UserService.ResolvedToken resolved = userService.resolveToken(first.getToken()).orElseThrow();
+        assertEquals(first.getId(), resolved.principal().id());
+        assertEquals(first.getId(), userService.visitUser(resolved.principal().id()).orElseThrow().getId());
     }
 
     @Test
     void addToCartCapsQuantityAt999() {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         ProductEntity product = createProduct();
 
         CartItemEntity item = userService.addToCart(user.getId(), product, "", 1000);
@@ -62,7 +64,7 @@ class UserServiceTest {
 
     @Test
     void addToCartMergesExistingItem() {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         ProductEntity product = createProduct();
 
         userService.addToCart(user.getId(), product, "默认", 2);
@@ -72,8 +74,8 @@ class UserServiceTest {
 
     @Test
     void updateCartItemQuantityRejectsWrongUser() {
-        UserEntity owner = userService.getOrCreateUser(null);
-        UserEntity other = userService.getOrCreateUser(null);
+        UserEntity owner = userService.createGuest();
+        UserEntity other = userService.createGuest();
         ProductEntity product = createProduct();
 
         CartItemEntity item = userService.addToCart(owner.getId(), product, "", 1);
@@ -90,8 +92,8 @@ class UserServiceTest {
 
     @Test
     void updateCartItemSelectedRejectsWrongUser() {
-        UserEntity owner = userService.getOrCreateUser(null);
-        UserEntity other = userService.getOrCreateUser(null);
+        UserEntity owner = userService.createGuest();
+        UserEntity other = userService.createGuest();
         ProductEntity product = createProduct();
 
         CartItemEntity item = userService.addToCart(owner.getId(), product, "", 1);
@@ -106,8 +108,8 @@ class UserServiceTest {
 
     @Test
     void removeCartItemRejectsWrongUser() {
-        UserEntity owner = userService.getOrCreateUser(null);
-        UserEntity other = userService.getOrCreateUser(null);
+        UserEntity owner = userService.createGuest();
+        UserEntity other = userService.createGuest();
         ProductEntity product = createProduct();
 
         CartItemEntity item = userService.addToCart(owner.getId(), product, "", 1);
@@ -124,7 +126,7 @@ class UserServiceTest {
 
     @Test
     void deleteUserCascadesRelatedData() {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         Long userId = user.getId();
         ProductEntity product = createProduct();
 
@@ -159,7 +161,7 @@ class UserServiceTest {
         // Initially no users
         long initial = userService.getRegisteredCount();
 
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
         user.setUserType("user");
         userService.saveUser(user);
 
@@ -170,8 +172,8 @@ class UserServiceTest {
     void getActiveCountReturnsCorrectCount() {
         long initialActive = userService.getActiveCount();
 
-        UserEntity user1 = userService.getOrCreateUser(null);
-        UserEntity user2 = userService.getOrCreateUser(null);
+        UserEntity user1 = userService.createGuest();
+        UserEntity user2 = userService.createGuest();
         user2.setActive(false);
         userService.saveUser(user2);
 
@@ -181,7 +183,7 @@ class UserServiceTest {
 
     @Test
     void getUserTotalSpendingCalculatesCorrectly() {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
 
         // Create orders
         OrderEntity order1 = new OrderEntity();
@@ -211,7 +213,7 @@ class UserServiceTest {
 
     @Test
     void getUserOrderCountReturnsCorrectCount() {
-        UserEntity user = userService.getOrCreateUser(null);
+        UserEntity user = userService.createGuest();
 
         assertEquals(0, userService.getUserOrderCount(user.getId()));
 
@@ -224,4 +226,24 @@ class UserServiceTest {
 
         assertEquals(1, userService.getUserOrderCount(user.getId()));
     }
+
+    @Test
+    void resolvePrincipalIsRefreshedOnSaveAndDelete() {
+        UserEntity user = userService.createGuest();
+        UserPrincipal principal = userService.resolvePrincipal(user.getToken()).orElseThrow();
+        assertEquals(user.getId(), principal.id());
+        assertEquals("guest", principal.userType());
+        assertTrue(principal.active());
+
+        user.setUserType("user");
+        user.setActive(false);
+        userService.saveUser(user);
+        principal = userService.resolvePrincipal(user.getToken()).orElseThrow();
+        assertEquals("user", principal.userType());
+        assertFalse(principal.active());
+
+        userService.deleteUser(user.getId());
+        assertTrue(userService.resolvePrincipal(user.getToken()).isEmpty());
+        assertTrue(userService.resolvePrincipal("unknown-token").isEmpty());
+    }
 }
@@ -0,0 +1,47 @@
+package com.crsp.mall.service;
+
+import com.crsp.mall.entity.UserPrincipal;
+import com.crsp.mall.support.TokenSigner;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserTokenIssuerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+
+    private UserTokenIssuer issuer(String keys) {
+        return new UserTokenIssuer(TokenSigner.fromConfig(keys), true, Duration.ofDays(30), Duration.ofHours(1),
+                clock::get);
+    }
+
+    @Test
+    void signedTokenCarriesPrincipalAndIsRefreshedAfterInterval() {
+        UserTokenIssuer issuer = issuer("k1:secret");
+        UserPrincipal principal = new UserPrincipal(42L, "user", false);
+        String token = issuer.issue(principal);
+
+        assertThat(UserTokenIssuer.isUserToken(token)).isTrue();
+        assertThat(issuer.verify(token)).isEqualTo(new UserTokenIssuer.Claims(principal, false));
+
+        clock.addAndGet(Duration.ofHours(1).toMillis());
+        assertThat(issuer.verify(token).needsRefresh()).isTrue();
+
+        clock.addAndGet(Duration.ofDays(30).toMillis());
+        assertThat(issuer.verify(token)).isNull();
+    }
+
+    @Test
+    void tokensSignedWithPreviousKeyAreRefreshed() {
+        String token = issuer("k1:old").issue(new UserPrincipal(7L, "guest", true));
+
+        UserTokenIssuer.Claims claims = issuer("k2:new,k1:old").verify(token);
+        assertThat(claims.principal().id()).isEqualTo(7L);
+        assertThat(claims.needsRefresh()).isTrue();
+
+        assertThat(issuer("k2:new").verify(token)).isNull();
+    }
+}
@@ -0,0 +1,40 @@
+package com.crsp.mall.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsedEntryWhenFull() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(2, null);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertThat(cache.get("a")).isEqualTo(1);
+
+        cache.put("c", 3);
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo(1);
+        assertThat(cache.get("c")).isEqualTo(3);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() {
+        AtomicLong now = new AtomicLong(1000);
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10, Duration.ofSeconds(5), now::get);
+        cache.put("a", 1);
+
+        now.addAndGet(4999);
+        assertThat(cache.get("a")).isEqualTo(1);
+
+        now.addAndGet(1);
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,164 @@
+package com.crsp.mall.support;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GroupCommitExecutorTest {
+
+    private final AtomicInteger commits = new AtomicInteger();
+
+    private final AtomicInteger rollbacks = new AtomicInteger();
+
+    private final TransactionTemplate transactionTemplate = new TransactionTemplate(new PlatformTransactionManager() {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            commits.incrementAndGet();
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            rollbacks.incrementAndGet();
+        }
+    });
+
+    private GroupCommitExecutor executor;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        executor.shutdown(5000);
+    }
+
+    @Test
+    void queuedTasksAreCommittedTogether() throws Exception {
+        executor = new GroupCommitExecutor("test-intake", transactionTemplate, 100, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = executor.submit(() -> {
+            started.countDown();
+            await(release);
+            return 0;
+        });
+        started.await(5, TimeUnit.SECONDS);
+        List<CompletableFuture<Integer>> queued = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            int value = i;
+            queued.add(executor.submit(() -> value));
+        }
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isZero();
+        for (int i = 0; i < queued.size(); i++) {
+            assertThat(queued.get(i).get(5, TimeUnit.SECONDS)).isEqualTo(i + 1);
+        }
+        assertThat(commits.get()).isEqualTo(2);
+    }
+
+    @Test
+    void failedTaskIsRetriedAloneWithoutAffectingOthers() throws Exception {
+        executor = new GroupCommitExecutor("test-intake", transactionTemplate, 100, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            started.countDown();
+            await(release);
+            return 0;
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Integer> ok = executor.submit(() -> 1);
+        CompletableFuture<Integer> failing = executor.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<Integer> alsoOk = executor.submit(() -> 2);
+        release.countDown();
+
+        assertThat(ok.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        assertThat(alsoOk.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+        assertThatThrownBy(() -> failing.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        // 整批回滚一次，重试时失败的任务再回滚一次
+        assertThat(rollbacks.get()).isEqualTo(2);
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        executor = new GroupCommitExecutor("test-intake", transactionTemplate, 1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            started.countDown();
+            await(release);
+            return 0;
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Integer> queued = executor.submit(() -> 1);
+
+        assertThatThrownBy(() -> executor.submit(() -> 2)).isInstanceOf(RejectedExecutionException.class);
+
+        release.countDown();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+    }
+
+    @Test
+    void taskSubmittedDuringShutdownIsNeverLeftPending() throws Exception {
+        for (int round = 0; round < 30; round++) {
+            executor = new GroupCommitExecutor("test-intake", transactionTemplate, 100, 10);
+            CountDownLatch go = new CountDownLatch(1);
+            List<CompletableFuture<Integer>> accepted = new ArrayList<>();
+            Thread submitter = new Thread(() -> {
+                await(go);
+                for (int i = 0; i < 50; i++) {
+                    try {
+                        int value = i;
+                        accepted.add(executor.submit(() -> value));
+                    } catch (RejectedExecutionException e) {
+                        return;
+                    }
+                }
+            });
+            submitter.start();
+            go.countDown();
+            executor.shutdown(5000);
+            submitter.join(5000);
+
+            // 被接受的任务要么执行完成，要么以已关闭失败，不会一直挂起
+            for (CompletableFuture<Integer> future : accepted) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+                }
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
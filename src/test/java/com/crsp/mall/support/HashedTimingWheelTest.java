@@ -0,0 +1,46 @@
+package com.crsp.mall.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedTimingWheelTest {
+
+    @Test
+    void expiresEntriesOnlyAfterTheirDeadline() {
+        HashedTimingWheel wheel = new HashedTimingWheel(100, 8, 0);
+        wheel.schedule(1, 250);
+        wheel.schedule(2, 300);
+        wheel.schedule(3, 50);
+
+        assertThat(wheel.advance(199)).containsExactly(3L);
+        assertThat(wheel.advance(299)).isEmpty();
+        assertThat(wheel.advance(300)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void keepsEntriesBeyondOneRevolutionUntilTheirRound() {
+        HashedTimingWheel wheel = new HashedTimingWheel(100, 4, 0);
+        // 与ID 1落在同一槽位，但晚两圈
+        wheel.schedule(1, 100);
+        wheel.schedule(2, 900);
+
+        assertThat(wheel.advance(100)).containsExactly(1L);
+        assertThat(wheel.advance(500)).isEmpty();
+        assertThat(wheel.size()).isEqualTo(1);
+        assertThat(wheel.advance(900)).containsExactly(2L);
+    }
+
+    @Test
+    void advancingPastSeveralRevolutionsScansEachSlotOnce() {
+        HashedTimingWheel wheel = new HashedTimingWheel(10, 16, 0);
+        for (long id = 0; id < 10_000; id++) {
+            wheel.schedule(id, id * 3);
+        }
+
+        assertThat(wheel.advance(15_000)).hasSize(5001);
+        assertThat(wheel.size()).isEqualTo(4999);
+        assertThat(wheel.advance(30_000)).hasSize(4999);
+    }
+}
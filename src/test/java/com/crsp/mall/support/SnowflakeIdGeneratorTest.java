@@ -0,0 +1,67 @@
+package com.crsp.mall.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long NOW = SnowflakeIdGenerator.EPOCH_MILLIS + 1_000_000L;
+
+    @Test
+    void idsEncodeTimestampAndNodeAndIncreaseWithinTheSameMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7, 5000, () -> NOW);
+
+        long previous = 0;
+        // 超过一毫秒的序号容量，进位后仍然递增
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId();
+            assertThat(id).isGreaterThan(previous);
+            assertThat(SnowflakeIdGenerator.nodeIdOf(id)).isEqualTo(7);
+            previous = id;
+        }
+        long first = new SnowflakeIdGenerator(7, 5000, () -> NOW).nextId();
+        assertThat(SnowflakeIdGenerator.timestampOf(first)).isEqualTo(NOW);
+    }
+
+    @Test
+    void toleratesSmallClockRollbackAndRejectsLargeOne() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, 100, clock::get);
+
+        long before = generator.nextId();
+        clock.set(NOW - 50);
+        assertThat(generator.nextId()).isGreaterThan(before);
+
+        clock.set(NOW - 500);
+        assertThatThrownBy(generator::nextId).isInstanceOf(IllegalStateException.class);
+
+        clock.set(NOW + 1);
+        assertThat(SnowflakeIdGenerator.timestampOf(generator.nextId())).isEqualTo(NOW + 1);
+    }
+
+    @Test
+    void concurrentCallersNeverReceiveTheSameId() throws InterruptedException {
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.forNode(3);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    ids.add(generator.nextId());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(ids).hasSize(threads.length * 20_000);
+        assertThat(SnowflakeIdGenerator.forNode(3)).isSameAs(generator);
+    }
+}
@@ -0,0 +1,41 @@
+package com.crsp.mall.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenSignerTest {
+
+    @Test
+    void verifiesOwnTokensAndRejectsTampering() {
+        TokenSigner signer = TokenSigner.fromConfig("k1:secret-one");
+
+        String token = signer.sign("u42:guest:1:1000");
+        assertThat(token).startsWith("u42:guest:1:1000.k1.");
+        assertThat(signer.verify(token)).isEqualTo(new TokenSigner.Verified("u42:guest:1:1000", true));
+
+        assertThat(signer.verify(token.replace("u42", "u43"))).isNull();
+        assertThat(signer.verify(token.substring(0, token.length() - 1))).isNull();
+        assertThat(signer.verify("u42:guest:1:1000")).isNull();
+        assertThat(signer.verify(TokenSigner.fromConfig("k1:other-secret").sign("u42:guest:1:1000"))).isNull();
+    }
+
+    @Test
+    void previousKeysStillVerifyAfterRotation() {
+        String oldToken = TokenSigner.fromConfig("k1:secret-one").sign("payload");
+
+        TokenSigner rotated = TokenSigner.fromConfig("k2:secret-two,k1:secret-one");
+        assertThat(rotated.verify(oldToken)).isEqualTo(new TokenSigner.Verified("payload", false));
+        assertThat(rotated.verify(rotated.sign("payload")).currentKey()).isTrue();
+
+        // 旧密钥移出配置后，旧令牌作废
+        assertThat(TokenSigner.fromConfig("k2:secret-two").verify(oldToken)).isNull();
+    }
+
+    @Test
+    void rejectsMalformedKeyConfig() {
+        assertThatThrownBy(() -> TokenSigner.fromConfig("no-key-id")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TokenSigner.fromConfig("k.1:secret")).isInstanceOf(IllegalArgumentException.class);
+    }
+}